@@ -1,6 +1,8 @@
 package cn.client;
 
+import cn.config.Config;
 import cn.message.*;
+import cn.protocol.FlushConsolidator;
 import cn.protocol.MessageCodecSharable;
 import cn.protocol.ProcotolFrameDecoder;
 import io.netty.bootstrap.Bootstrap;
@@ -45,6 +47,10 @@ public class ChatClient {
                 @Override
                 protected void initChannel(SocketChannel ch) throws Exception {
                     ChannelPipeline pipeline = ch.pipeline();
+                    // 合并 flush 必须最靠近 head
+                    if (Config.isFlushConsolidationEnabled()) {
+                        pipeline.addLast(new FlushConsolidator());
+                    }
                     pipeline.addLast(new ProcotolFrameDecoder());
                     //pipeline.addLast(LOGGING_HANDLER);//调试时可以打开
                     pipeline.addLast(MESSAGE_CODEC);
@@ -91,8 +97,8 @@ public class ChatClient {
                                 if (EXIT.get()) {
                                     return;
                                 }
-                                // 构造消息对象
-                                LoginRequestMessage message = new LoginRequestMessage(username, password);
+                                // 构造消息对象 同时告诉服务器本客户端希望使用的序列化方式
+                                LoginRequestMessage message = new LoginRequestMessage(username, password, Config.getSerializerAlgorithm());
                                 // 发送消息 只要写入消息就会触发出栈操作
                                 ctx.writeAndFlush(message);
                                 System.out.println("等待服务器验证和连接......");
@@ -115,6 +121,8 @@ public class ChatClient {
                                 System.out.println("gmembers [group name]");
                                 System.out.println("gjoin [group name]");
                                 System.out.println("gquit [group name]");
+                                System.out.println("history [username] [before]");
+                                System.out.println("ghistory [group name] [before]");
                                 System.out.println("quit");
                                 System.out.println("==================================");
 
@@ -152,6 +160,14 @@ public class ChatClient {
                                             case "gquit":
                                                 ctx.writeAndFlush(new GroupQuitRequestMessage(username, s[1]));
                                                 break;
+                                            case "history":
+                                                ctx.writeAndFlush(new HistoryRequestMessage(null, s[1],
+                                                        s.length > 2 ? Long.parseLong(s[2]) : -1, 20));
+                                                break;
+                                            case "ghistory":
+                                                ctx.writeAndFlush(new HistoryRequestMessage(s[1], null,
+                                                        s.length > 2 ? Long.parseLong(s[2]) : -1, 20));
+                                                break;
                                             case "quit":
                                                 ctx.channel().close();
                                                 return;
@@ -165,6 +181,8 @@ public class ChatClient {
                                         System.out.println("gmembers [group name]");
                                         System.out.println("gjoin [group name]");
                                         System.out.println("gquit [group name]");
+                                        System.out.println("history [username] [before]");
+                                        System.out.println("ghistory [group name] [before]");
                                         System.out.println("quit");
                                         System.out.println("==================================");
                                     }
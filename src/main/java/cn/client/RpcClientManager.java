@@ -1,62 +1,62 @@
 package cn.client;
 
 
-import cn.client.handler.RpcResponseMessageHandler;
+import cn.config.Config;
+import cn.message.Message;
+import cn.message.RpcMethodRequestMessage;
 import cn.message.RpcRequestMessage;
-import cn.protocol.MessageCodecSharable;
-import cn.protocol.ProcotolFrameDecoder;
-import cn.protocol.SequenceIdGenerator;
 import cn.server.service.HelloService;
-import io.netty.bootstrap.Bootstrap;
+import cn.server.service.HelloServiceAsync;
+import cn.server.service.ServiceInvoker;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelInitializer;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.logging.LogLevel;
-import io.netty.handler.logging.LoggingHandler;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
 import lombok.extern.slf4j.Slf4j;
 
 
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 public class RpcClientManager {
 
+    // 单次调用的超时时间 超时后从等待表中移除 不会一直占着
+    private static final long TIMEOUT_MILLIS = Config.getRpcClientTimeoutMillis();
+    // 时间轮 上万个调用同时在途时登记和取消超时都是 O(1)
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(
+            new DefaultThreadFactory("rpc-timeout", true), 10, TimeUnit.MILLISECONDS);
+
     // 调用举例
     public static void main(String[] args) {
         HelloService service = getProxyService(HelloService.class);
         String s = service.sayHello("zhangsan");
         System.out.println(s);
+        HelloServiceAsync asyncService = getAsyncProxyService(HelloService.class, HelloServiceAsync.class);
+        asyncService.sayHello("lisi").thenAccept(System.out::println).join();
     }
 
     // 创建代理类 代理的是服务提供者的接口
-    // 当主线程拿到代理对象调用方法 具体过程异步执行并且把消息结果放到了RpcResponseMessageHandler的map里面
+    // 当主线程拿到代理对象调用方法 具体过程异步执行 调用线程等待结果 超时后抛出异常
     public static <T> T getProxyService(Class<T> serviceClass) {
         ClassLoader loader = serviceClass.getClassLoader();
         Class<?>[] interfaces = new Class[]{serviceClass};
 
+        Map<Method, String> signatures = new HashMap<>();
+        for (Method method : serviceClass.getMethods()) {
+            signatures.put(method, ServiceInvoker.signature(serviceClass.getName(), method));
+        }
         Object o = Proxy.newProxyInstance(loader, interfaces, (proxy, method, args) -> {
-            // 将方法调用转换为 消息对象
-            int sequenceId = SequenceIdGenerator.nextId();
-            RpcRequestMessage msg = new RpcRequestMessage(
-                    sequenceId,
-                    serviceClass.getName(),
-                    method.getName(),
-                    method.getReturnType(),
-                    method.getParameterTypes(),
-                    args
-            );
-            // 将消息对象发送出去
-            getChannel().writeAndFlush(msg);
-
-            // 注意这里一般是主线程调用方法 但是返回结果是通过handler存在NIO线程中 所以需要promise去进行线程间通信
-            // 这里使用了一个map去保留 然后使用自定义的id从promise集合去拿到指定的结果
-            // 需要指定异步接受结果的线程来自eventloop
-            DefaultPromise<Object> promise = new DefaultPromise<>(getChannel().eventLoop());
-            RpcResponseMessageHandler.PROMISES.put(sequenceId, promise);
-
+            Promise<Object> promise = call(serviceClass.getName(), method, signatures.get(method), args);
             // 等待 promise 结果 await方法不抛异常 sync会抛异常
             promise.await();
             if (promise.isSuccess()) {
@@ -70,48 +70,119 @@ public class RpcClientManager {
         return (T) o;
     }
 
-    private static volatile Channel channel = null;
-    private static final Object LOCK = new Object();
+    /**
+     * 创建异步代理 asyncClass 的每个方法与 serviceClass 中同名同参数的方法对应 返回 CompletableFuture
+     * 调用线程不会阻塞 一个线程就可以同时发起成千上万个调用
+     * @param serviceClass 服务端注册的服务接口
+     * @param asyncClass 异步视图接口
+     */
+    public static <A> A getAsyncProxyService(Class<?> serviceClass, Class<A> asyncClass) {
+        Map<Method, Method> methods = new HashMap<>();
+        Map<Method, String> signatures = new HashMap<>();
+        for (Method method : asyncClass.getMethods()) {
+            if (method.getReturnType() != CompletableFuture.class) {
+                throw new IllegalArgumentException("异步方法必须返回 CompletableFuture: " + method);
+            }
+            try {
+                Method serviceMethod = serviceClass.getMethod(method.getName(), method.getParameterTypes());
+                methods.put(method, serviceMethod);
+                signatures.put(method, ServiceInvoker.signature(serviceClass.getName(), serviceMethod));
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(serviceClass.getName() + " 中没有对应的方法: " + method, e);
+            }
+        }
+        Object o = Proxy.newProxyInstance(asyncClass.getClassLoader(), new Class<?>[]{asyncClass}, (proxy, method, args) -> {
+            Method serviceMethod = methods.get(method);
+            if (serviceMethod == null) {
+                throw new UnsupportedOperationException(method.toString());
+            }
+            Promise<Object> promise = call(serviceClass.getName(), serviceMethod, signatures.get(method), args);
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            promise.addListener(f -> {
+                if (f.isSuccess()) {
+                    future.complete(f.getNow());
+                } else {
+                    future.completeExceptionally(f.cause());
+                }
+            });
+            // 调用方取消时同时移除等待表中的登记
+            future.whenComplete((value, cause) -> {
+                if (future.isCancelled()) {
+                    promise.cancel(false);
+                }
+            });
+            return future;
+        });
+        return asyncClass.cast(o);
+    }
 
+    /**
+     * 发起一次调用 先登记 promise 和超时再发送 响应再快也不会找不到 promise
+     * promise 完成时一定已经从等待表中移除
+     */
+    public static Promise<Object> call(String interfaceName, Method method, String signature, Object[] args) {
+        return call(getPool(), interfaceName, method, signature, args);
+    }
 
-    public static Channel getChannel() {
-        if (channel != null) {
-            return channel;
+    /**
+     * 在指定的连接池上发起一次调用
+     */
+    public static Promise<Object> call(RpcConnectionPool pool, String interfaceName, Method method, String signature, Object[] args) {
+        RpcConnection connection = pool.select();
+        if (connection == null) {
+            return GlobalEventExecutor.INSTANCE.<Object>newPromise().setFailure(new ConnectException("没有可用的连接"));
         }
-        synchronized (LOCK) {
-            if (channel != null) {
-                return channel;
+        Channel channel = connection.getChannel();
+        // 将方法调用转换为 消息对象 序号只需要在这条连接内唯一
+        int sequenceId = connection.nextSequenceId();
+        // 握手之后只携带方法编号和参数 握手完成前或服务端没有这个方法时退回完整格式
+        Integer methodId = signature == null ? null : connection.methodId(signature);
+        Message msg = methodId != null
+                ? new RpcMethodRequestMessage(sequenceId, methodId, args)
+                : new RpcRequestMessage(
+                        sequenceId,
+                        interfaceName,
+                        method.getName(),
+                        method.getReturnType(),
+                        method.getParameterTypes(),
+                        args
+                );
+        // 注意这里一般是主线程调用方法 但是返回结果是通过handler存在NIO线程中 所以需要promise去进行线程间通信
+        // 连接的等待表保留 promise 然后使用序号从中拿到指定的结果
+        // 需要指定异步接受结果的线程来自eventloop
+        Promise<Object> promise = new DefaultPromise<>(channel.eventLoop());
+        connection.register(sequenceId, promise);
+        Timeout timeout = TIMER.newTimeout(t -> {
+            if (connection.remove(sequenceId, promise)) {
+                promise.tryFailure(new TimeoutException("远程调用超时 " + interfaceName + "." + method.getName()));
             }
-            initChannel();
-            return channel;
-        }
+        }, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        promise.addListener(f -> {
+            timeout.cancel();
+            // 取消等不经过响应处理器完成的情况 也要移除登记
+            connection.remove(sequenceId, promise);
+        });
+        // 将消息对象发送出去
+        channel.writeAndFlush(msg).addListener(f -> {
+            if (!f.isSuccess()) {
+                promise.tryFailure(f.cause());
+            }
+        });
+        return promise;
     }
 
-    // 初始化 channel 方法
-    private static void initChannel() {
-        NioEventLoopGroup group = new NioEventLoopGroup();
-        LoggingHandler LOGGING_HANDLER = new LoggingHandler(LogLevel.DEBUG);
-        MessageCodecSharable MESSAGE_CODEC = new MessageCodecSharable();
-        RpcResponseMessageHandler RPC_HANDLER = new RpcResponseMessageHandler();
-        Bootstrap bootstrap = new Bootstrap();
-        bootstrap.channel(NioSocketChannel.class);
-        bootstrap.group(group);
-        bootstrap.handler(new ChannelInitializer<SocketChannel>() {
-            @Override
-            protected void initChannel(SocketChannel ch) throws Exception {
-                ch.pipeline().addLast(new ProcotolFrameDecoder());
-                //ch.pipeline().addLast(LOGGING_HANDLER);
-                ch.pipeline().addLast(MESSAGE_CODEC);
-                ch.pipeline().addLast(RPC_HANDLER);
+    private static volatile RpcConnectionPool pool = null;
+    private static final Object LOCK = new Object();
+
+    public static RpcConnectionPool getPool() {
+        if (pool != null) {
+            return pool;
+        }
+        synchronized (LOCK) {
+            if (pool == null) {
+                pool = new RpcConnectionPool(Config.getRpcClientHost(), Config.getRpcClientPort(), Config.getRpcClientPoolSize());
             }
-        });
-        try {
-            channel = bootstrap.connect("localhost", 8081).sync().channel();
-            channel.closeFuture().addListener(future -> {
-                group.shutdownGracefully();
-            });
-        } catch (Exception e) {
-            log.error("client error", e);
+            return pool;
         }
     }
 }
@@ -0,0 +1,112 @@
+package cn.client;
+
+import cn.message.RpcResponseMessage;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Promise;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 连接池中的一条连接 每条连接有自己的序号空间和等待表 不同连接之间互不竞争
+ * 底层 channel 断开重连后换成新的 channel 序号和等待表继续沿用
+ */
+public class RpcConnection {
+
+    // 响应处理器通过它找到 channel 所属的连接
+    public static final AttributeKey<RpcConnection> CONNECTION = AttributeKey.valueOf("rpcConnection");
+
+    private final AtomicInteger sequence = new AtomicInteger();
+    // 等待响应的调用 发送之前登记 收到响应、超时、发送失败或者连接断开时移除
+    private final Map<Integer, Promise<Object>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private volatile Channel channel;
+    // 握手得到的方法签名 -> 编号 只对当前 channel 有效 重连后重新握手
+    private volatile Map<String, Integer> methodIds = Collections.emptyMap();
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    void setChannel(Channel channel) {
+        channel.attr(CONNECTION).set(this);
+        this.methodIds = Collections.emptyMap();
+        this.channel = channel;
+    }
+
+    public void setMethodTable(List<String> methods) {
+        Map<String, Integer> ids = new HashMap<>(methods.size() * 4 / 3 + 1);
+        for (int i = 0; i < methods.size(); i++) {
+            ids.put(methods.get(i), i);
+        }
+        this.methodIds = ids;
+    }
+
+    /**
+     * @return 握手还没完成或者服务端没有这个方法时返回 null
+     */
+    public Integer methodId(String signature) {
+        return methodIds.get(signature);
+    }
+
+    public boolean isActive() {
+        Channel channel = this.channel;
+        return channel != null && channel.isActive();
+    }
+
+    public int nextSequenceId() {
+        return sequence.incrementAndGet();
+    }
+
+    public int pendingCount() {
+        return pendingCount.get();
+    }
+
+    public void register(int sequenceId, Promise<Object> promise) {
+        pending.put(sequenceId, promise);
+        pendingCount.incrementAndGet();
+    }
+
+    /**
+     * @return promise 仍在等待表中并被本次移除时返回 true
+     */
+    public boolean remove(int sequenceId, Promise<Object> promise) {
+        if (pending.remove(sequenceId, promise)) {
+            pendingCount.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public void complete(RpcResponseMessage msg) {
+        Promise<Object> promise = pending.remove(msg.getSequenceId());// remove方法防止消息在map里累计
+        if (promise != null) {
+            pendingCount.decrementAndGet();
+            Exception exceptionValue = msg.getExceptionValue();
+            // 可能已经超时失败 用 try 系列方法
+            if (exceptionValue != null) {
+                promise.tryFailure(exceptionValue);
+            } else {
+                promise.trySuccess(msg.getReturnValue());
+            }
+        }
+    }
+
+    /**
+     * 连接断开后不会再有响应 立即让所有等待中的调用失败
+     */
+    public void failAll(Throwable cause) {
+        pending.keySet().forEach(sequenceId -> {
+            Promise<Object> promise = pending.remove(sequenceId);
+            if (promise != null) {
+                pendingCount.decrementAndGet();
+                promise.tryFailure(cause);
+            }
+        });
+    }
+}
@@ -0,0 +1,119 @@
+package cn.client;
+
+import cn.client.handler.RpcHandshakeResponseMessageHandler;
+import cn.client.handler.RpcResponseMessageHandler;
+import cn.config.Config;
+import cn.message.RpcHandshakeRequestMessage;
+import cn.protocol.FlushConsolidator;
+import cn.protocol.MessageCodecSharable;
+import cn.protocol.ProcotolFrameDecoder;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 到同一个服务端的多条连接 每次调用选择等待响应最少的一条
+ * 连接断开后按指数退避自动重连
+ */
+@Slf4j
+public class RpcConnectionPool {
+
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 100;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 5000;
+
+    private final String host;
+    private final int port;
+    private final NioEventLoopGroup group;
+    private final Bootstrap bootstrap;
+    private final RpcConnection[] connections;
+    private volatile boolean closed;
+
+    public RpcConnectionPool(String host, int port, int size) {
+        this.host = host;
+        this.port = port;
+        this.group = new NioEventLoopGroup(size);
+        MessageCodecSharable MESSAGE_CODEC = new MessageCodecSharable();
+        RpcResponseMessageHandler RPC_HANDLER = new RpcResponseMessageHandler();
+        RpcHandshakeResponseMessageHandler HANDSHAKE_HANDLER = new RpcHandshakeResponseMessageHandler();
+        bootstrap = new Bootstrap();
+        bootstrap.channel(NioSocketChannel.class);
+        bootstrap.group(group);
+        bootstrap.handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) throws Exception {
+                // 合并 flush 必须最靠近 head
+                if (Config.isFlushConsolidationEnabled()) {
+                    ch.pipeline().addLast(new FlushConsolidator());
+                }
+                ch.pipeline().addLast(new ProcotolFrameDecoder());
+                ch.pipeline().addLast(MESSAGE_CODEC);
+                ch.pipeline().addLast(RPC_HANDLER);
+                ch.pipeline().addLast(HANDSHAKE_HANDLER);
+            }
+        });
+        connections = new RpcConnection[size];
+        for (int i = 0; i < size; i++) {
+            connections[i] = new RpcConnection();
+            // 启动时先同步连一次 之后断开都在后台重连
+            connect(connections[i], MIN_RECONNECT_DELAY_MILLIS).awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * 选出等待响应最少的可用连接
+     * @return 没有可用连接时返回 null
+     */
+    public RpcConnection select() {
+        RpcConnection best = null;
+        for (RpcConnection connection : connections) {
+            if (connection.isActive() && (best == null || connection.pendingCount() < best.pendingCount())) {
+                best = connection;
+            }
+        }
+        return best;
+    }
+
+    public void close() {
+        closed = true;
+        for (RpcConnection connection : connections) {
+            if (connection.getChannel() != null) {
+                connection.getChannel().close();
+            }
+        }
+        group.shutdownGracefully();
+    }
+
+    /**
+     * @param retryDelayMillis 这次连接失败时 等待多久后重试
+     */
+    private ChannelFuture connect(RpcConnection connection, long retryDelayMillis) {
+        ChannelFuture future = bootstrap.connect(host, port);
+        future.addListener((ChannelFuture f) -> {
+            if (f.isSuccess()) {
+                connection.setChannel(f.channel());
+                // 握手完成前的调用使用完整格式 完成后改用方法编号
+                f.channel().writeAndFlush(new RpcHandshakeRequestMessage(connection.nextSequenceId()));
+                f.channel().closeFuture().addListener(close -> scheduleReconnect(connection, MIN_RECONNECT_DELAY_MILLIS));
+            } else {
+                log.warn("连接 {}:{} 失败 {}ms 后重试", host, port, retryDelayMillis);
+                scheduleReconnect(connection, retryDelayMillis);
+            }
+        });
+        return future;
+    }
+
+    private void scheduleReconnect(RpcConnection connection, long delayMillis) {
+        if (closed || group.isShuttingDown()) {
+            return;
+        }
+        // 再次失败时退避时间翻倍
+        long nextDelayMillis = Math.min(delayMillis << 1, MAX_RECONNECT_DELAY_MILLIS);
+        group.schedule(() -> connect(connection, nextDelayMillis), delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,24 @@
+package cn.client.handler;
+
+
+import cn.client.RpcConnection;
+import cn.message.RpcHandshakeResponseMessage;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@ChannelHandler.Sharable
+public class RpcHandshakeResponseMessageHandler extends SimpleChannelInboundHandler<RpcHandshakeResponseMessage> {
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, RpcHandshakeResponseMessage msg) {
+        // 方法编号只在这条连接上有效
+        RpcConnection connection = ctx.channel().attr(RpcConnection.CONNECTION).get();
+        if (connection != null && msg.getMethods() != null) {
+            connection.setMethodTable(msg.getMethods());
+            log.debug("握手完成 服务端共 {} 个方法", msg.getMethods().size());
+        }
+    }
+}
@@ -1,36 +1,35 @@
 package cn.client.handler;
 
 
+import cn.client.RpcConnection;
 import cn.message.RpcResponseMessage;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.util.concurrent.Promise;
 import lombok.extern.slf4j.Slf4j;
 
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.channels.ClosedChannelException;
 
 @Slf4j
 @ChannelHandler.Sharable
 public class RpcResponseMessageHandler extends SimpleChannelInboundHandler<RpcResponseMessage> {
 
-    public static final Map<Integer, Promise<Object>> PROMISES = new ConcurrentHashMap<>();
-
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, RpcResponseMessage msg) {
-        Promise<Object> promise = PROMISES.remove(msg.getSequenceId());// remove方法防止消息在map里累计
-        if (promise != null) {
-            Object returnValue = msg.getReturnValue();
-            Exception exceptionValue = msg.getExceptionValue();
-            if(exceptionValue != null) {
-                // 唤醒await
-                promise.setFailure(exceptionValue);
-            } else {
-                promise.setSuccess(returnValue);
-            }
+        // 每条连接有自己的等待表 序号只在连接内唯一
+        RpcConnection connection = ctx.channel().attr(RpcConnection.CONNECTION).get();
+        if (connection != null) {
+            connection.complete(msg);
         }
+    }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        RpcConnection connection = ctx.channel().attr(RpcConnection.CONNECTION).get();
+        if (connection != null) {
+            connection.failAll(new ClosedChannelException());
+        }
+        super.channelInactive(ctx);
     }
 }
@@ -3,6 +3,7 @@ package cn.config;
 
 
 import cn.protocol.Serializer;
+import cn.server.backpressure.SlowConsumerPolicy;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -26,7 +27,10 @@ public abstract class Config {
             return Integer.parseInt(value);
         }
     }
-    public static Serializer.Algorithm getSerializerAlgorithm() {
+    // 编码每条消息都要用到 启动时解析一次即可
+    private static final Serializer.Algorithm SERIALIZER_ALGORITHM = parseSerializerAlgorithm();
+
+    private static Serializer.Algorithm parseSerializerAlgorithm() {
         String value = properties.getProperty("serializer.algorithm");
         if(value == null) {
             return Serializer.Algorithm.Java;
@@ -34,4 +38,292 @@ public abstract class Config {
             return Serializer.Algorithm.valueOf(value);
         }
     }
-}
\ No newline at end of file
+    public static Serializer.Algorithm getSerializerAlgorithm() {
+        return SERIALIZER_ALGORITHM;
+    }
+    public static int getMaxFrameLength() {
+        String value = properties.getProperty("protocol.max.frame.length");
+        if(value == null) {
+            return 1024;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getMetricsReportInterval() {
+        String value = properties.getProperty("metrics.report.interval");
+        if(value == null) {
+            return 60;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getCompressionThreshold() {
+        String value = properties.getProperty("compression.threshold");
+        if(value == null) {
+            return 1024;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static boolean isCompressionDictionaryEnabled() {
+        String value = properties.getProperty("compression.dictionary");
+        return value == null || Boolean.parseBoolean(value);
+    }
+    public static boolean isChatPassthroughEnabled() {
+        String value = properties.getProperty("chat.forward.passthrough");
+        return value == null || Boolean.parseBoolean(value);
+    }
+    public static boolean isFlushConsolidationEnabled() {
+        String value = properties.getProperty("flush.consolidation.enabled");
+        return value == null || Boolean.parseBoolean(value);
+    }
+    public static int getFlushWindowMicros() {
+        String value = properties.getProperty("flush.window.micros");
+        if(value == null) {
+            return 50;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getFlushLimitMin() {
+        String value = properties.getProperty("flush.limit.min");
+        if(value == null) {
+            return 8;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getFlushLimitMax() {
+        String value = properties.getProperty("flush.limit.max");
+        if(value == null) {
+            return 256;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static String getGroupSessionClass() {
+        String value = properties.getProperty("group.session");
+        if(value == null) {
+            return "cn.server.session.GroupSessionMemoryImpl";
+        } else {
+            return value;
+        }
+    }
+    public static int getGroupShards() {
+        String value = properties.getProperty("group.shards");
+        if(value == null) {
+            return Runtime.getRuntime().availableProcessors();
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getFanOutParallelThreshold() {
+        String value = properties.getProperty("fanout.parallel.threshold");
+        if(value == null) {
+            return 1024;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getFanOutBatchSize() {
+        String value = properties.getProperty("fanout.batch.size");
+        if(value == null) {
+            return 256;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getWriteBufferLowWaterMark() {
+        String value = properties.getProperty("write.buffer.low.water.mark");
+        if(value == null) {
+            return 32 * 1024;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getWriteBufferHighWaterMark() {
+        String value = properties.getProperty("write.buffer.high.water.mark");
+        if(value == null) {
+            return 64 * 1024;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getBackpressureQueueBytes() {
+        String value = properties.getProperty("backpressure.queue.bytes");
+        if(value == null) {
+            return 256 * 1024;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static SlowConsumerPolicy getSlowConsumerPolicy() {
+        String value = properties.getProperty("backpressure.policy");
+        if(value == null) {
+            return SlowConsumerPolicy.DROP_OLDEST;
+        } else {
+            return SlowConsumerPolicy.valueOf(value);
+        }
+    }
+    public static boolean isOfflineEnabled() {
+        String value = properties.getProperty("offline.enabled");
+        return value != null && Boolean.parseBoolean(value);
+    }
+    public static String getOfflineDir() {
+        String value = properties.getProperty("offline.dir");
+        if(value == null) {
+            return "data/offline";
+        } else {
+            return value;
+        }
+    }
+    public static int getOfflineShards() {
+        String value = properties.getProperty("offline.shards");
+        if(value == null) {
+            return 4;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getOfflineSegmentBytes() {
+        String value = properties.getProperty("offline.segment.bytes");
+        if(value == null) {
+            return 8 * 1024 * 1024;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static boolean isHistoryEnabled() {
+        String value = properties.getProperty("history.enabled");
+        return value != null && Boolean.parseBoolean(value);
+    }
+    public static String getHistoryDir() {
+        String value = properties.getProperty("history.dir");
+        if(value == null) {
+            return "data/history";
+        } else {
+            return value;
+        }
+    }
+    public static int getHistorySegmentBytes() {
+        String value = properties.getProperty("history.segment.bytes");
+        if(value == null) {
+            return 64 * 1024 * 1024;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getHistoryReaders() {
+        String value = properties.getProperty("history.readers");
+        if(value == null) {
+            return 2;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static String getGroupDataDir() {
+        String value = properties.getProperty("group.data.dir");
+        if(value == null) {
+            return "data/group";
+        } else {
+            return value;
+        }
+    }
+    public static int getGroupSnapshotRecords() {
+        String value = properties.getProperty("group.snapshot.records");
+        if(value == null) {
+            return 100000;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getAuthThreads() {
+        String value = properties.getProperty("auth.threads");
+        if(value == null) {
+            return Runtime.getRuntime().availableProcessors();
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getAuthQueueSize() {
+        String value = properties.getProperty("auth.queue.size");
+        if(value == null) {
+            return 1024;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getAuthCacheSeconds() {
+        String value = properties.getProperty("auth.cache.seconds");
+        if(value == null) {
+            return 60;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getAuthHashIterations() {
+        String value = properties.getProperty("auth.hash.iterations");
+        if(value == null) {
+            return 20000;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static long getRpcClientTimeoutMillis() {
+        String value = properties.getProperty("rpc.client.timeout.millis");
+        if(value == null) {
+            return 5000;
+        } else {
+            return Long.parseLong(value);
+        }
+    }
+    public static String getRpcClientHost() {
+        String value = properties.getProperty("rpc.client.host");
+        if(value == null) {
+            return "localhost";
+        } else {
+            return value;
+        }
+    }
+    public static int getRpcClientPort() {
+        String value = properties.getProperty("rpc.client.port");
+        if(value == null) {
+            return 8081;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getRpcClientPoolSize() {
+        String value = properties.getProperty("rpc.client.pool.size");
+        if(value == null) {
+            return Runtime.getRuntime().availableProcessors();
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    // 可以用 rpc.executor.<接口全限定名>.threads 为单个服务单独配置 键不能以 Service 结尾 否则会被当成服务注册
+    public static int getRpcExecutorThreads(String service) {
+        String value = properties.getProperty("rpc.executor." + service + ".threads", properties.getProperty("rpc.executor.threads"));
+        if(value == null) {
+            return Runtime.getRuntime().availableProcessors() * 2;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static int getRpcExecutorQueueSize(String service) {
+        String value = properties.getProperty("rpc.executor." + service + ".queue.size", properties.getProperty("rpc.executor.queue.size"));
+        if(value == null) {
+            return 1024;
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+    public static boolean isRpcExecutorPerService() {
+        String value = properties.getProperty("rpc.executor.per.service");
+        return value != null && Boolean.parseBoolean(value);
+    }
+    public static boolean isRpcExecutorVirtual() {
+        String value = properties.getProperty("rpc.executor.virtual");
+        return value != null && Boolean.parseBoolean(value);
+    }
+}
@@ -10,11 +10,18 @@ import java.util.Set;
 public class GroupMembersResponseMessage extends Message {
 
     private Set<String> members;
+    // 成员快照的版本号 每次加入或退出加一 客户端可以据此判断成员列表是否变化
+    private long version;
 
     public GroupMembersResponseMessage(Set<String> members) {
         this.members = members;
     }
 
+    public GroupMembersResponseMessage(Set<String> members, long version) {
+        this.members = members;
+        this.version = version;
+    }
+
     @Override
     public int getMessageType() {
         return GroupMembersResponseMessage;
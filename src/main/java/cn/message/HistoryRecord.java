@@ -0,0 +1,22 @@
+package cn.message;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 一条聊天记录
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoryRecord implements Serializable {
+    // 会话内从 0 开始递增的编号
+    private long id;
+    // 服务器收到消息的时间 毫秒
+    private long timestamp;
+    private String from;
+    private String content;
+}
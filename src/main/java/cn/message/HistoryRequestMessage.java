@@ -0,0 +1,32 @@
+package cn.message;
+
+import lombok.Data;
+import lombok.ToString;
+
+/**
+ * 分页查询聊天记录 groupName 和 peer 只设置一个
+ */
+@Data
+@ToString(callSuper = true)
+public class HistoryRequestMessage extends Message {
+    // 查询群聊记录时的群名
+    private String groupName;
+    // 查询私聊记录时的对方用户名
+    private String peer;
+    // 只返回编号小于它的记录 小于 0 表示从最新一条开始
+    private long before;
+    // 最多返回多少条
+    private int limit;
+
+    public HistoryRequestMessage(String groupName, String peer, long before, int limit) {
+        this.groupName = groupName;
+        this.peer = peer;
+        this.before = before;
+        this.limit = limit;
+    }
+
+    @Override
+    public int getMessageType() {
+        return HistoryRequestMessage;
+    }
+}
@@ -0,0 +1,30 @@
+package cn.message;
+
+import lombok.Data;
+import lombok.ToString;
+
+import java.util.List;
+
+@Data
+@ToString(callSuper = true)
+public class HistoryResponseMessage extends AbstractResponseMessage {
+    // 按时间从旧到新排列
+    private List<HistoryRecord> records;
+    // 查询上一页时作为 before 传回 为 0 表示没有更早的记录了
+    private long nextBefore;
+
+    public HistoryResponseMessage(boolean success, String reason) {
+        super(success, reason);
+    }
+
+    public HistoryResponseMessage(List<HistoryRecord> records, long nextBefore) {
+        super(true, null);
+        this.records = records;
+        this.nextBefore = nextBefore;
+    }
+
+    @Override
+    public int getMessageType() {
+        return HistoryResponseMessage;
+    }
+}
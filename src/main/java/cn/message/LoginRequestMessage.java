@@ -1,5 +1,6 @@
 package cn.message;
 
+import cn.protocol.Serializer;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -12,6 +13,15 @@ import lombok.ToString;
 public class LoginRequestMessage extends Message {
     private String username;
     private String password;
+    /**
+     * 客户端希望服务器在这个连接上使用的序列化方式 为 null 时使用服务器的默认配置
+     */
+    private Serializer.Algorithm serializerAlgorithm;
+
+    public LoginRequestMessage(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
 
     @Override
     public int getMessageType() {
@@ -39,8 +39,13 @@ public abstract class Message implements Serializable {
     public static final int GroupMembersResponseMessage = 13;
     public static final int PingMessage = 14;
     public static final int PongMessage = 15;
+    public static final int HistoryRequestMessage = 16;
+    public static final int HistoryResponseMessage = 17;
     public static final int RPC_MESSAGE_TYPE_REQUEST = 101;
     public static final int  RPC_MESSAGE_TYPE_RESPONSE = 102;
+    public static final int RPC_MESSAGE_TYPE_HANDSHAKE_REQUEST = 103;
+    public static final int RPC_MESSAGE_TYPE_HANDSHAKE_RESPONSE = 104;
+    public static final int RPC_MESSAGE_TYPE_METHOD_REQUEST = 105;
 
     private static final Map<Integer, Class<? extends Message>> messageClasses = new HashMap<>();
     static {
@@ -60,8 +65,13 @@ public abstract class Message implements Serializable {
         messageClasses.put(GroupMembersResponseMessage, GroupMembersResponseMessage.class);
         messageClasses.put(PingMessage, PingMessage.class);
         messageClasses.put(PongMessage, PongMessage.class);
+        messageClasses.put(HistoryRequestMessage, HistoryRequestMessage.class);
+        messageClasses.put(HistoryResponseMessage, HistoryResponseMessage.class);
         messageClasses.put(RPC_MESSAGE_TYPE_REQUEST, RpcRequestMessage.class);
         messageClasses.put(RPC_MESSAGE_TYPE_RESPONSE, RpcResponseMessage.class);
+        messageClasses.put(RPC_MESSAGE_TYPE_HANDSHAKE_REQUEST, RpcHandshakeRequestMessage.class);
+        messageClasses.put(RPC_MESSAGE_TYPE_HANDSHAKE_RESPONSE, RpcHandshakeResponseMessage.class);
+        messageClasses.put(RPC_MESSAGE_TYPE_METHOD_REQUEST, RpcMethodRequestMessage.class);
     }
 
 }
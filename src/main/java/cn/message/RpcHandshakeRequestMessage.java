@@ -0,0 +1,19 @@
+package cn.message;
+
+import lombok.ToString;
+
+/**
+ * 连接建立后客户端发送的握手 请求服务端的方法表
+ */
+@ToString(callSuper = true)
+public class RpcHandshakeRequestMessage extends Message {
+
+    public RpcHandshakeRequestMessage(int sequenceId) {
+        super.setSequenceId(sequenceId);
+    }
+
+    @Override
+    public int getMessageType() {
+        return RPC_MESSAGE_TYPE_HANDSHAKE_REQUEST;
+    }
+}
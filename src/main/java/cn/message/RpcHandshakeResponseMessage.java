@@ -0,0 +1,26 @@
+package cn.message;
+
+import lombok.Data;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * 服务端的方法表 第 i 个方法签名的编号就是 i 之后的调用只需要携带编号
+ * 签名格式为 接口全限定名#方法名(参数类型,...)
+ */
+@Data
+@ToString(callSuper = true)
+public class RpcHandshakeResponseMessage extends Message {
+
+    private List<String> methods;
+
+    public RpcHandshakeResponseMessage(List<String> methods) {
+        this.methods = methods;
+    }
+
+    @Override
+    public int getMessageType() {
+        return RPC_MESSAGE_TYPE_HANDSHAKE_RESPONSE;
+    }
+}
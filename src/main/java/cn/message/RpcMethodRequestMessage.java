@@ -0,0 +1,32 @@
+package cn.message;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * 握手之后的紧凑调用 只携带方法编号和参数值 响应仍然是 RpcResponseMessage
+ */
+@Getter
+@ToString(callSuper = true)
+public class RpcMethodRequestMessage extends Message {
+
+    /**
+     * 握手时服务端方法表中的编号
+     */
+    private int methodId;
+    /**
+     * 方法参数值数组
+     */
+    private Object[] parameterValue;
+
+    public RpcMethodRequestMessage(int sequenceId, int methodId, Object[] parameterValue) {
+        super.setSequenceId(sequenceId);
+        this.methodId = methodId;
+        this.parameterValue = parameterValue;
+    }
+
+    @Override
+    public int getMessageType() {
+        return RPC_MESSAGE_TYPE_METHOD_REQUEST;
+    }
+}
@@ -0,0 +1,45 @@
+package cn.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 以 2 的幂为桶边界的直方图 记录是无锁的 百分位只精确到所在桶的上界
+ * 适合记录延迟这类跨越多个数量级的数值
+ */
+public class Histogram {
+
+    // 第 i 个桶记录 [2^(i-1), 2^i) 范围内的值 第 0 个桶记录 0
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+    public void record(long value) {
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(value, 0)));
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile 0 到 100 之间
+     * @return 该百分位所在桶的上界 没有数据时返回 0
+     */
+    public long percentile(double percentile) {
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return i == 0 ? 0 : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
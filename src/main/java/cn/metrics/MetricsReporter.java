@@ -0,0 +1,47 @@
+package cn.metrics;
+
+import cn.config.Config;
+import io.netty.util.concurrent.EventExecutorGroup;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 各模块的运行指标汇总 定时输出到日志
+ * 模块在类初始化时通过 register 注册一个指标快照的生成函数
+ */
+@Slf4j
+public abstract class MetricsReporter {
+
+    private static final Map<String, Supplier<String>> SOURCES = new ConcurrentSkipListMap<>();
+
+    /**
+     * 注册指标来源 同名来源会被覆盖
+     * @param name 指标名称
+     * @param source 生成指标快照文本的函数
+     */
+    public static void register(String name, Supplier<String> source) {
+        SOURCES.put(name, source);
+    }
+
+    /**
+     * 按照 metrics.report.interval 配置的秒数定时输出指标 配置为 0 时不输出
+     * @param executor 用来执行定时任务的线程组
+     */
+    public static void start(EventExecutorGroup executor) {
+        int interval = Config.getMetricsReportInterval();
+        if (interval <= 0) {
+            return;
+        }
+        executor.scheduleAtFixedRate(MetricsReporter::report, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public static void report() {
+        for (Map.Entry<String, Supplier<String>> entry : SOURCES.entrySet()) {
+            log.debug("[{}] {}", entry.getKey(), entry.getValue().get());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package cn.protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按类名解析 Class 的工具 支持基本类型 并缓存解析结果 避免每次解码都走 Class.forName
+ */
+public abstract class Classes {
+
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+    private static final Map<String, Class<?>> CACHE = new ConcurrentHashMap<>();
+
+    static {
+        for (Class<?> type : new Class<?>[]{boolean.class, byte.class, char.class, short.class,
+                int.class, long.class, float.class, double.class, void.class}) {
+            PRIMITIVES.put(type.getName(), type);
+        }
+    }
+
+    public static Class<?> forName(String name) {
+        Class<?> type = PRIMITIVES.get(name);
+        if (type != null) {
+            return type;
+        }
+        return CACHE.computeIfAbsent(name, key -> {
+            try {
+                return Class.forName(key);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("找不到类 " + key, e);
+            }
+        });
+    }
+}
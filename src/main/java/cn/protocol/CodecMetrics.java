@@ -0,0 +1,72 @@
+package cn.protocol;
+
+import cn.metrics.MetricsReporter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 编解码指标 解码吞吐量以及每帧发生的正文拷贝字节数
+ */
+public abstract class CodecMetrics {
+
+    private static final LongAdder FRAMES_DECODED = new LongAdder();
+    private static final LongAdder BYTES_DECODED = new LongAdder();
+    private static final LongAdder BYTES_COPIED = new LongAdder();
+    private static final LongAdder DECODE_NANOS = new LongAdder();
+    private static final LongAdder FRAMES_COMPRESSED = new LongAdder();
+    private static final LongAdder BYTES_BEFORE_COMPRESSION = new LongAdder();
+    private static final LongAdder BYTES_AFTER_COMPRESSION = new LongAdder();
+
+    // 上一次输出时的累计值 用来计算区间内的吞吐量
+    private static long lastFrames;
+    private static long lastBytes;
+    private static long lastCopied;
+    private static long lastNanos;
+    private static long lastReportTime = System.nanoTime();
+
+    static {
+        MetricsReporter.register("codec", CodecMetrics::report);
+    }
+
+    static void recordDecode(int frameLength, long nanos) {
+        FRAMES_DECODED.increment();
+        BYTES_DECODED.add(frameLength);
+        DECODE_NANOS.add(nanos);
+    }
+
+    static void recordCopy(int bytes) {
+        BYTES_COPIED.add(bytes);
+    }
+
+    static void recordCompression(int before, int after) {
+        FRAMES_COMPRESSED.increment();
+        BYTES_BEFORE_COMPRESSION.add(before);
+        BYTES_AFTER_COMPRESSION.add(after);
+    }
+
+    public static synchronized String report() {
+        long now = System.nanoTime();
+        long frames = FRAMES_DECODED.sum();
+        long bytes = BYTES_DECODED.sum();
+        long copied = BYTES_COPIED.sum();
+        long nanos = DECODE_NANOS.sum();
+        long deltaFrames = frames - lastFrames;
+        double seconds = Math.max(now - lastReportTime, 1) / 1e9;
+        long before = BYTES_BEFORE_COMPRESSION.sum();
+        String report = String.format("decoded %d frames (%.0f frames/s, %.1f KB/s), %.1f ns/frame, %.1f bytes copied/frame, "
+                        + "compressed %d frames total (ratio %.2f)",
+                deltaFrames,
+                deltaFrames / seconds,
+                (bytes - lastBytes) / 1024.0 / seconds,
+                deltaFrames == 0 ? 0.0 : (double) (nanos - lastNanos) / deltaFrames,
+                deltaFrames == 0 ? 0.0 : (double) (copied - lastCopied) / deltaFrames,
+                FRAMES_COMPRESSED.sum(),
+                before == 0 ? 1.0 : (double) BYTES_AFTER_COMPRESSION.sum() / before);
+        lastFrames = frames;
+        lastBytes = bytes;
+        lastCopied = copied;
+        lastNanos = nanos;
+        lastReportTime = now;
+        return report;
+    }
+}
@@ -0,0 +1,193 @@
+package cn.protocol;
+
+import cn.config.Config;
+import cn.message.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static cn.protocol.MessageCodecSharable.*;
+
+/**
+ * 帧正文压缩
+ * 正文长度达到 compression.threshold 时使用 Deflate 压缩 压缩后的正文是 4 字节原始长度加上 raw deflate 数据
+ * 可以为每种消息类型使用一个共享字典 两端根据同一份代码生成字典 帧头标志位说明是否使用了字典
+ */
+public abstract class Compression {
+
+    private static final int THRESHOLD = Config.getCompressionThreshold();
+    private static final boolean USE_DICTIONARY = Config.isCompressionDictionaryEnabled();
+
+    private static final byte[][] DICTIONARIES = new byte[128][];
+
+    private static final FastThreadLocal<Deflater> DEFLATER = new FastThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+    private static final FastThreadLocal<Inflater> INFLATER = new FastThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+    // 每个线程复用的临时数组 jdk8 的 Deflater 只能处理 byte[]
+    private static final FastThreadLocal<byte[][]> SCRATCH = new FastThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[2][1024];
+        }
+    };
+
+    static {
+        for (int type = 0; type < DICTIONARIES.length; type++) {
+            Class<? extends Message> messageClass = Message.getMessageClass(type);
+            if (messageClass != null) {
+                DICTIONARIES[type] = buildDictionary(messageClass);
+            }
+        }
+    }
+
+    /**
+     * 如果正文达到阈值且压缩后确实更小 就原地把帧正文替换成压缩数据 并设置帧头的标志位和长度
+     * @param frame 已经写好帧头和正文的完整帧
+     */
+    static void compressIfWorthwhile(ByteBuf frame, int messageType) {
+        int length = frame.writerIndex() - HEADER_LENGTH;
+        if (THRESHOLD <= 0 || length < THRESHOLD) {
+            return;
+        }
+        byte[][] scratch = SCRATCH.get();
+        byte[] input = ensure(scratch, 0, length);
+        // 压缩后比原来还大就没有意义 输出空间给到原长度即可
+        byte[] output = ensure(scratch, 1, length);
+        frame.getBytes(HEADER_LENGTH, input, 0, length);
+
+        byte[] dictionary = USE_DICTIONARY ? DICTIONARIES[messageType & 0x7f] : null;
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+        int compressed = 0;
+        while (!deflater.finished() && compressed < length) {
+            compressed += deflater.deflate(output, compressed, length - compressed);
+        }
+        if (!deflater.finished() || compressed + 4 >= length) {
+            return;
+        }
+        frame.writerIndex(HEADER_LENGTH);
+        frame.writeInt(length);
+        frame.writeBytes(output, 0, compressed);
+        frame.setByte(FLAGS_OFFSET, FLAG_COMPRESSED | (dictionary != null ? FLAG_DICTIONARY : 0));
+        frame.setInt(LENGTH_FIELD_OFFSET, compressed + 4);
+        CodecMetrics.recordCompression(length, compressed + 4);
+    }
+
+    /**
+     * 解压 in 中从 readerIndex 开始的 length 字节压缩正文 返回原始正文 调用者负责释放
+     * @param maxLength 原始正文允许的最大长度 防止压缩炸弹
+     */
+    static ByteBuf decompress(ByteBufAllocator alloc, ByteBuf in, int length, int flags, int messageType, int maxLength) {
+        if (length < 4) {
+            throw new CorruptedFrameException("压缩正文长度不合法: " + length);
+        }
+        int originalLength = in.readInt();
+        int compressedLength = length - 4;
+        if (originalLength < 0 || originalLength > maxLength) {
+            throw new CorruptedFrameException("解压后的正文长度不合法: " + originalLength);
+        }
+        byte[] input;
+        int inputOffset;
+        if (in.hasArray()) {
+            input = in.array();
+            inputOffset = in.arrayOffset() + in.readerIndex();
+        } else {
+            input = ensure(SCRATCH.get(), 0, compressedLength);
+            inputOffset = 0;
+            in.getBytes(in.readerIndex(), input, 0, compressedLength);
+            CodecMetrics.recordCopy(compressedLength);
+        }
+        in.skipBytes(compressedLength);
+
+        ByteBuf body = alloc.heapBuffer(originalLength);
+        try {
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            if ((flags & FLAG_DICTIONARY) != 0) {
+                byte[] dictionary = DICTIONARIES[messageType & 0x7f];
+                if (dictionary == null) {
+                    throw new CorruptedFrameException("消息类型 " + messageType + " 没有压缩字典");
+                }
+                inflater.setDictionary(dictionary);
+            }
+            inflater.setInput(input, inputOffset, compressedLength);
+            int inflated = 0;
+            byte[] output = body.array();
+            int outputOffset = body.arrayOffset();
+            while (inflated < originalLength && !inflater.finished()) {
+                int n = inflater.inflate(output, outputOffset + inflated, originalLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != originalLength) {
+                throw new CorruptedFrameException("解压后的正文长度不一致: " + inflated + "/" + originalLength);
+            }
+            body.writerIndex(originalLength);
+            return body;
+        } catch (DataFormatException e) {
+            body.release();
+            throw new CorruptedFrameException("压缩数据损坏", e);
+        } catch (RuntimeException e) {
+            body.release();
+            throw e;
+        }
+    }
+
+    private static byte[] ensure(byte[][] scratch, int index, int length) {
+        if (scratch[index].length < length) {
+            scratch[index] = new byte[Math.max(length, scratch[index].length << 1)];
+        }
+        return scratch[index];
+    }
+
+    // 用消息的字段名构造字典 json 类序列化方式的正文里充满了这些片段
+    /**
+     * 消息类型对应的压缩字典 没有时返回 null
+     */
+    static byte[] dictionary(int messageType) {
+        return DICTIONARIES[messageType & 0x7f];
+    }
+
+    // 字段名排序后拼接 保证两端得到完全相同的字典
+    private static byte[] buildDictionary(Class<?> messageClass) {
+        Set<String> names = new TreeSet<>();
+        for (Class<?> type = messageClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    names.add(field.getName());
+                }
+            }
+        }
+        StringBuilder dictionary = new StringBuilder("true,false,null");
+        for (String name : names) {
+            dictionary.append(",\"").append(name).append("\":\"");
+        }
+        return dictionary.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,164 @@
+package cn.protocol;
+
+import cn.config.Config;
+import cn.metrics.MetricsReporter;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 合并 flush 减少系统调用
+ * 读周期内的 flush 推迟到 channelReadComplete 统一执行
+ * 读周期外的 flush(比如群消息扇出 由其他 channel 触发) 在一个很短的时间窗口内合并
+ * 待合并的 flush 数达到上限会立即 flush 上限根据负载在 [min, max] 之间自适应
+ * 必须放在 pipeline 最靠近 head 的位置 每个 channel 一个实例
+ * Netty 自带的 FlushConsolidationHandler 只有固定的 flush 上限 读周期外只能推迟到下一次事件循环
+ * 没有时间窗口 自适应上限和统计 所以这里单独实现
+ */
+public class FlushConsolidator extends ChannelDuplexHandler {
+
+    private static final LongAdder FLUSH_REQUESTS = new LongAdder();
+    private static final LongAdder FLUSHES = new LongAdder();
+    private static final LongAdder ADDED_LATENCY_NANOS = new LongAdder();
+
+    static {
+        MetricsReporter.register("flush", FlushConsolidator::report);
+    }
+
+    private final long windowNanos;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private ChannelHandlerContext ctx;
+    private int limit;
+    private int pendingFlushes;
+    private long firstPendingTime;
+    private boolean readInProgress;
+    private ScheduledFuture<?> scheduledFlush;
+    private final Runnable flushTask = this::flushTimeout;
+
+    public FlushConsolidator() {
+        this(TimeUnit.MICROSECONDS.toNanos(Config.getFlushWindowMicros()),
+                Config.getFlushLimitMin(), Config.getFlushLimitMax());
+    }
+
+    public FlushConsolidator(long windowNanos, int minLimit, int maxLimit) {
+        this.windowNanos = windowNanos;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = minLimit;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        FLUSH_REQUESTS.increment();
+        if (pendingFlushes++ == 0) {
+            firstPendingTime = System.nanoTime();
+        }
+        if (pendingFlushes >= limit) {
+            // 攒满上限说明负载很高 放宽上限换取更少的系统调用
+            limit = Math.min(maxLimit, limit << 1);
+            flushNow(ctx);
+            return;
+        }
+        if (readInProgress) {
+            // 等 channelReadComplete 统一 flush
+            return;
+        }
+        if (windowNanos <= 0) {
+            flushNow(ctx);
+        } else if (scheduledFlush == null) {
+            scheduledFlush = ctx.executor().schedule(flushTask, windowNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        readInProgress = false;
+        flushIfNeeded(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        // 出站缓冲区已经积压 尽快把数据交给 socket
+        if (!ctx.channel().isWritable()) {
+            flushIfNeeded(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        flushIfNeeded(ctx);
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushIfNeeded(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushIfNeeded(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        flushIfNeeded(ctx);
+    }
+
+    private void flushTimeout() {
+        scheduledFlush = null;
+        if (pendingFlushes > 0) {
+            // 整个窗口都没攒够上限的四分之一 说明负载不高 降低上限减少延迟
+            if (pendingFlushes < limit >> 2) {
+                limit = Math.max(minLimit, limit >> 1);
+            }
+            flushNow(ctx);
+        }
+    }
+
+    private void flushIfNeeded(ChannelHandlerContext ctx) {
+        if (pendingFlushes > 0) {
+            flushNow(ctx);
+        }
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        FLUSHES.increment();
+        ADDED_LATENCY_NANOS.add(System.nanoTime() - firstPendingTime);
+        pendingFlushes = 0;
+        ctx.flush();
+    }
+
+    public static String report() {
+        long requests = FLUSH_REQUESTS.sum();
+        long flushes = FLUSHES.sum();
+        return String.format("flush requested %d, performed %d, avoided %d, avg added latency %.1f us",
+                requests, flushes, requests - flushes,
+                flushes == 0 ? 0.0 : ADDED_LATENCY_NANOS.sum() / 1000.0 / flushes);
+    }
+}
@@ -0,0 +1,132 @@
+package cn.protocol;
+
+import cn.message.ChatRequestMessage;
+import cn.message.Message;
+import cn.protocol.binary.BinaryCodecs;
+import cn.protocol.binary.BinaryIO;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.util.ReferenceCounted;
+
+import static cn.protocol.MessageCodecSharable.*;
+
+/**
+ * 保留了原始帧的私聊消息 服务器可以不重新序列化 直接把原始正文转发给接收方
+ * Binary 格式下解码器只解析 from 和 to 两个路由字段 content 在真正用到时才解析
+ * 持有累积缓冲区中原始帧的引用 用完必须释放 SimpleChannelInboundHandler 会自动释放
+ */
+public class ForwardableChatRequestMessage extends ChatRequestMessage implements ReferenceCounted {
+
+    private final transient ByteBuf frame;
+    private final transient Serializer.Algorithm algorithm;
+    private transient boolean contentDecoded;
+
+    private ForwardableChatRequestMessage(ByteBuf frame, Serializer.Algorithm algorithm) {
+        this.frame = frame;
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * 从完整的帧构造消息 只在 Binary 且未压缩时走延迟解析 其他情况完整反序列化
+     * @param alloc 所在连接的分配器 解压正文时使用
+     * @param frame 完整帧 所有权转移给返回的消息
+     * @param maxLength 解压后正文允许的最大长度
+     */
+    static ForwardableChatRequestMessage decode(ByteBufAllocator alloc, ByteBuf frame, Serializer.Algorithm algorithm, int flags, int sequenceId, int maxLength) {
+        ForwardableChatRequestMessage message = new ForwardableChatRequestMessage(frame, algorithm);
+        try {
+            ByteBuf body = frame.slice(HEADER_LENGTH, frame.readableBytes() - HEADER_LENGTH);
+            if (algorithm == Serializer.Algorithm.Binary && (flags & FLAG_COMPRESSED) == 0) {
+                message.setFrom(BinaryIO.readString(body));
+                message.setTo(BinaryIO.readString(body));
+            } else {
+                ChatRequestMessage full = ProcotolFrameDecoder.decodeBody(alloc, body, body.readableBytes(),
+                        flags, algorithm, ChatRequestMessage.class, Message.ChatRequestMessage, maxLength);
+                message.setFrom(full.getFrom());
+                message.setTo(full.getTo());
+                message.setContent(full.getContent());
+                message.contentDecoded = true;
+            }
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        message.setSequenceId(sequenceId);
+        return message;
+    }
+
+    @Override
+    public String getContent() {
+        if (!contentDecoded) {
+            contentDecoded = true;
+            ChatRequestMessage full = BinaryCodecs.forClass(ChatRequestMessage.class)
+                    .read(frame.slice(HEADER_LENGTH, frame.readableBytes() - HEADER_LENGTH));
+            setContent(full.getContent());
+        }
+        return super.getContent();
+    }
+
+    /**
+     * 构造发给接收方的 ChatResponseMessage 帧 正文直接复用原始帧 只重写帧头
+     * @param targetAlgorithm 接收方连接协商的序列化方式
+     * @return 可以直接写出的帧 序列化方式不一致时返回 null 需要调用者重新编码
+     */
+    public ByteBuf forwardFrame(ByteBufAllocator alloc, Serializer.Algorithm targetAlgorithm) {
+        if (targetAlgorithm != algorithm) {
+            return null;
+        }
+        int version = frame.getByte(4);
+        int flags = version == VERSION ? frame.getByte(FLAGS_OFFSET) : 0;
+        ByteBuf header = alloc.ioBuffer(HEADER_LENGTH);
+        header.writeInt(MAGIC_NUMBER);
+        header.writeByte(VERSION);
+        header.writeByte(algorithm.ordinal());
+        header.writeByte(Message.ChatResponseMessage);
+        header.writeInt(getSequenceId());
+        header.writeByte(flags | FLAG_FORWARDED);
+        header.writeInt(frame.readableBytes() - HEADER_LENGTH);
+        CompositeByteBuf forward = alloc.compositeDirectBuffer(2);
+        forward.addComponents(true, header, frame.retainedSlice(HEADER_LENGTH, frame.readableBytes() - HEADER_LENGTH));
+        return forward;
+    }
+
+    @Override
+    public int refCnt() {
+        return frame.refCnt();
+    }
+
+    @Override
+    public ReferenceCounted retain() {
+        frame.retain();
+        return this;
+    }
+
+    @Override
+    public ReferenceCounted retain(int increment) {
+        frame.retain(increment);
+        return this;
+    }
+
+    @Override
+    public ReferenceCounted touch() {
+        frame.touch();
+        return this;
+    }
+
+    @Override
+    public ReferenceCounted touch(Object hint) {
+        frame.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return frame.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return frame.release(decrement);
+    }
+}
@@ -3,11 +3,13 @@ package cn.protocol;
 
 import cn.config.Config;
 import cn.message.Message;
-import com.alibaba.fastjson.JSON;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.util.AttributeKey;
 import lombok.extern.slf4j.Slf4j;
 
 
@@ -16,61 +18,102 @@ import java.util.List;
 @Slf4j
 @ChannelHandler.Sharable
 /**
- * 必须和 LengthFieldBasedFrameDecoder 一起使用，确保接到的 ByteBuf 消息是完整的
  * 本类是负责传输协议 如何组织信息 如果避免粘包半包问题等
+ * 负责出站编码 入站的拆帧和解码由 ProcotolFrameDecoder 一次完成
  */
-public class MessageCodecSharable extends MessageToMessageCodec<ByteBuf, Message> {
+public class MessageCodecSharable extends MessageToMessageEncoder<Message> {
+
+    public static final int MAGIC_NUMBER = 0x01020304;
+    // 版本 2 起偏移 11 的字节是标志位 版本 1 的帧这里只是填充 解码时仍然兼容
+    public static final byte VERSION = 2;
+    public static final byte LEGACY_VERSION = 1;
+    // 协议头固定 16 字节 长度字段位于偏移 12 处
+    public static final int HEADER_LENGTH = 16;
+    public static final int FLAGS_OFFSET = 11;
+
+    // 帧头标志位 只有版本 2 的帧才有
+    // 正文经过压缩
+    public static final int FLAG_COMPRESSED = 0x01;
+    // 压缩时使用了该消息类型的共享字典
+    public static final int FLAG_DICTIONARY = 0x02;
+    // 服务器原样转发的私聊 帧头类型是 ChatResponseMessage 正文却是发送方的 ChatRequestMessage
+    public static final int FLAG_FORWARDED = 0x04;
+    public static final int LENGTH_FIELD_OFFSET = 12;
+
+    // 每种消息类型编码后帧长度的滑动估计值 用来一次性申请足够大的缓冲区 避免写入过程中扩容拷贝
+    // 多个 eventLoop 并发读写这里只会让估计值稍有偏差 不影响正确性 所以不加同步
+    private static final int[] FRAME_SIZE_ESTIMATES = new int[128];
+    private static final int DEFAULT_FRAME_SIZE = 256;
+
+    /**
+     * 登录时协商出的序列化方式 服务器发往该连接的所有帧都使用它 没有协商时使用默认配置
+     */
+    public static final AttributeKey<Serializer.Algorithm> SERIALIZER_ALGORITHM = AttributeKey.valueOf("serializerAlgorithm");
+
+    public static Serializer.Algorithm algorithmOf(Channel channel) {
+        Serializer.Algorithm algorithm = channel.attr(SERIALIZER_ALGORITHM).get();
+        return algorithm == null ? Config.getSerializerAlgorithm() : algorithm;
+    }
+
     @Override
     public void encode(ChannelHandlerContext ctx, Message msg, List<Object> outList) {
         try {
-            ByteBuf out = ctx.alloc().buffer();
+            outList.add(encodeFrame(ctx.alloc(), msg, algorithmOf(ctx.channel())));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 把消息编码成一个完整的帧 正文直接序列化进池化的直接内存 不经过中间 byte[]
+     * @param alloc 缓冲区分配器
+     * @param msg 消息
+     * @param algorithm 序列化算法
+     * @return 编码好的帧 调用者负责释放
+     */
+    public static ByteBuf encodeFrame(ByteBufAllocator alloc, Message msg, Serializer.Algorithm algorithm) {
+        int messageType = msg.getMessageType();
+        ByteBuf out = alloc.ioBuffer(estimateFrameSize(messageType));
+        try {
             // 1. 4 字节的魔数
-            out.writeBytes(new byte[]{1, 2, 3, 4});
+            out.writeInt(MAGIC_NUMBER);
             // 2. 1 字节的版本,
-            out.writeByte(1);
+            out.writeByte(VERSION);
             // 3. 1 字节的序列化方式 jdk 0 , json 1 这个是按照枚举对象的顺序
-            out.writeByte(Config.getSerializerAlgorithm().ordinal());
+            out.writeByte(algorithm.ordinal());
             // 4. 1 字节的指令类型
-            out.writeByte(msg.getMessageType());
+            out.writeByte(messageType);
             // 5. 4 个字节
             out.writeInt(msg.getSequenceId());
-            // 无意义，对齐填充
-            out.writeByte(0xff);
-            // 6. 获取内容的字节数组
-            byte[] bytes = Config.getSerializerAlgorithm().serialize(msg);
-            // 7. 长度
-            out.writeInt(bytes.length);
-            // 8. 写入内容
-            out.writeBytes(bytes);
-            outList.add(out);
-        } catch (Exception e) {
-            e.printStackTrace();
+            // 标志位 是否压缩等 正文写完后再决定
+            out.writeByte(0);
+            // 6. 长度先占位 正文写完后回填
+            out.writeInt(0);
+            // 7. 直接把正文序列化进缓冲区
+            algorithm.serialize(msg, out);
+            int length = out.writerIndex() - HEADER_LENGTH;
+            out.setInt(LENGTH_FIELD_OFFSET, length);
+            recordFrameSize(messageType, out.writerIndex());
+            // 8. 正文足够大时压缩
+            Compression.compressIfWorthwhile(out, messageType);
+            return out;
+        } catch (RuntimeException e) {
+            out.release();
+            throw e;
         }
     }
 
-    @Override
-    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out){
-        try {
-            int magicNum = in.readInt();
-            byte version = in.readByte();
-            byte serializerAlgorithm = in.readByte(); // 0 或 1
-            byte messageType = in.readByte(); // 0,1,2...
-            int sequenceId = in.readInt();
-            in.readByte();
-            int length = in.readInt();
-            byte[] bytes = new byte[length];
-            in.readBytes(bytes, 0, length);
+    private static int estimateFrameSize(int messageType) {
+        int estimate = FRAME_SIZE_ESTIMATES[messageType & 0x7f];
+        // 多留 1/8 的余量 避免刚好差几个字节而扩容
+        return estimate == 0 ? DEFAULT_FRAME_SIZE : estimate + (estimate >> 3);
+    }
 
-            // 找到反序列化算法
-            Serializer.Algorithm algorithm = Serializer.Algorithm.values()[serializerAlgorithm];
-            // 确定具体消息类型
-            Class<? extends Message> messageClass = Message.getMessageClass(messageType);
-            Message message = algorithm.deserialize(messageClass, bytes);
-            System.out.println(JSON.toJSONString(message));
-            out.add(message);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    private static void recordFrameSize(int messageType, int frameSize) {
+        int index = messageType & 0x7f;
+        int estimate = FRAME_SIZE_ESTIMATES[index];
+        // 指数滑动平均 新样本权重 1/8
+        FRAME_SIZE_ESTIMATES[index] = estimate == 0 ? frameSize : estimate + ((frameSize - estimate) >> 3);
     }
 
 }
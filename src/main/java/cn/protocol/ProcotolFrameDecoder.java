@@ -1,14 +1,129 @@
 package cn.protocol;
 
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import cn.config.Config;
+import cn.message.ChatRequestMessage;
+import cn.message.ChatResponseMessage;
+import cn.message.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import lombok.extern.slf4j.Slf4j;
 
-public class ProcotolFrameDecoder extends LengthFieldBasedFrameDecoder {
+import java.util.List;
+
+import static cn.protocol.MessageCodecSharable.*;
+
+/**
+ * 一次完成拆帧和反序列化
+ * 在累积缓冲区上原地校验魔数和版本 正文直接从累积缓冲区反序列化 整个过程不拷贝帧
+ * 压缩过的正文先解压到一个临时缓冲区再反序列化
+ * 私聊消息会保留原始帧的引用 供服务器直接转发
+ * 每个 channel 都要有自己的实例 不能共享
+ */
+@Slf4j
+public class ProcotolFrameDecoder extends ByteToMessageDecoder {
+
+    private static final Serializer.Algorithm[] ALGORITHMS = Serializer.Algorithm.values();
+    private static final boolean CHAT_PASSTHROUGH = Config.isChatPassthroughEnabled();
+
+    private final int maxFrameLength;
 
     public ProcotolFrameDecoder() {
-        this(1024, 12, 4, 0, 0);
+        this(Config.getMaxFrameLength());
+    }
+
+    public ProcotolFrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        if (in.readableBytes() < HEADER_LENGTH) {
+            return;
+        }
+        int start = in.readerIndex();
+        int length = in.getInt(start + LENGTH_FIELD_OFFSET);
+        if (length < 0 || length > maxFrameLength - HEADER_LENGTH) {
+            fail(ctx, in, new TooLongFrameException("帧长度不合法: " + length));
+        }
+        if (in.readableBytes() < HEADER_LENGTH + length) {
+            // 半包 等待更多数据
+            return;
+        }
+        long begin = System.nanoTime();
+        // 1. 原地校验魔数和版本
+        if (in.getInt(start) != MAGIC_NUMBER) {
+            fail(ctx, in, new CorruptedFrameException("魔数不正确: " + Integer.toHexString(in.getInt(start))));
+        }
+        byte version = in.getByte(start + 4);
+        if (version != VERSION && version != LEGACY_VERSION) {
+            fail(ctx, in, new CorruptedFrameException("不支持的协议版本: " + version));
+        }
+        int flags = version == VERSION ? in.getByte(start + FLAGS_OFFSET) : 0;
+        byte serializerAlgorithm = in.getByte(start + 5);
+        byte messageType = in.getByte(start + 6);
+        int sequenceId = in.getInt(start + 7);
+        Class<? extends Message> messageClass = Message.getMessageClass(messageType);
+        if (serializerAlgorithm < 0 || serializerAlgorithm >= ALGORITHMS.length || messageClass == null) {
+            fail(ctx, in, new CorruptedFrameException("未知的序列化方式或消息类型: " + serializerAlgorithm + "/" + messageType));
+        }
+
+        // 2. 直接从累积缓冲区反序列化正文
+        int bodyStart = start + HEADER_LENGTH;
+        in.readerIndex(bodyStart);
+        try {
+            Message message;
+            if (messageType == Message.ChatRequestMessage && CHAT_PASSTHROUGH) {
+                // 私聊消息保留原始帧 服务器可以直接转发正文
+                message = ForwardableChatRequestMessage.decode(ctx.alloc(),
+                        in.retainedSlice(start, HEADER_LENGTH + length), ALGORITHMS[serializerAlgorithm], flags, sequenceId, maxFrameLength);
+            } else if ((flags & FLAG_FORWARDED) != 0) {
+                // 服务器原样转发过来的私聊 正文是发送方的 ChatRequestMessage
+                ChatRequestMessage request = decodeBody(ctx.alloc(), in, length, flags,
+                        ALGORITHMS[serializerAlgorithm], ChatRequestMessage.class, Message.ChatRequestMessage, maxFrameLength);
+                ChatResponseMessage response = new ChatResponseMessage(request.getFrom(), request.getContent());
+                response.setSuccess(true);
+                message = response;
+            } else {
+                message = decodeBody(ctx.alloc(), in, length, flags, ALGORITHMS[serializerAlgorithm], messageClass, messageType, maxFrameLength);
+            }
+            message.setSequenceId(sequenceId);
+            out.add(message);
+        } catch (RuntimeException e) {
+            // 单个帧的正文有问题只丢弃这一帧 连接继续可用
+            log.error("{} 反序列化失败 丢弃消息 类型 {}", ctx.channel(), messageType, e);
+        } finally {
+            // 无论反序列化器读了多少 都精确地跳到下一帧
+            in.readerIndex(bodyStart + length);
+        }
+        CodecMetrics.recordDecode(HEADER_LENGTH + length, System.nanoTime() - begin);
+    }
+
+    /**
+     * 从 in 的 readerIndex 开始反序列化 length 字节的正文 压缩过的正文先解压
+     * @param bodyType 正文对应的消息类型 用来选择压缩字典
+     * @param maxLength 解压后正文允许的最大长度
+     */
+    static <T> T decodeBody(ByteBufAllocator alloc, ByteBuf in, int length, int flags,
+                            Serializer.Algorithm algorithm, Class<T> messageClass, int bodyType, int maxLength) {
+        if ((flags & FLAG_COMPRESSED) == 0) {
+            return algorithm.deserialize(messageClass, in, length);
+        }
+        ByteBuf body = Compression.decompress(alloc, in, length, flags, bodyType, maxLength);
+        try {
+            return algorithm.deserialize(messageClass, body, body.readableBytes());
+        } finally {
+            body.release();
+        }
     }
 
-    public ProcotolFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength, int lengthAdjustment, int initialBytesToStrip) {
-        super(maxFrameLength, lengthFieldOffset, lengthFieldLength, lengthAdjustment, initialBytesToStrip);
+    // 协议层面的错误无法再定位下一帧 丢弃剩余数据并关闭连接
+    private static void fail(ChannelHandlerContext ctx, ByteBuf in, Exception cause) throws Exception {
+        in.skipBytes(in.readableBytes());
+        ctx.close();
+        throw cause;
     }
 }
@@ -0,0 +1,46 @@
+package cn.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 只允许反序列化白名单中类型的 ObjectInputStream
+ * Binary 和 Protobuf 格式里少见的 rpc 值退化为 jdk 序列化 数据来自对端 不能任意实例化类 否则可以被构造利用链
+ * 白名单覆盖常见的值类型和 rpc 响应里传递的 Exception
+ */
+public class RestrictedObjectInputStream extends ObjectInputStream {
+
+    private static final Set<String> ALLOWED = new HashSet<>(Arrays.asList(
+            "java.lang.String", "java.lang.Number", "java.lang.Byte", "java.lang.Short", "java.lang.Integer",
+            "java.lang.Long", "java.lang.Float", "java.lang.Double", "java.lang.Boolean", "java.lang.Character",
+            "java.math.BigInteger", "java.math.BigDecimal",
+            "java.lang.Throwable", "java.lang.Exception", "java.lang.RuntimeException",
+            "java.lang.StackTraceElement", "[Ljava.lang.StackTraceElement;",
+            // Throwable 的 suppressedExceptions 字段
+            "java.util.Collections$UnmodifiableRandomAccessList", "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableCollection", "java.util.Collections$EmptyList", "java.util.ArrayList",
+            "[B", "[I", "[J", "[D", "[Z", "[Ljava.lang.String;"));
+
+    public RestrictedObjectInputStream(InputStream in) throws IOException {
+        super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        if (!ALLOWED.contains(desc.getName())) {
+            throw new InvalidClassException(desc.getName(), "不允许反序列化的类型");
+        }
+        return super.resolveClass(desc);
+    }
+
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+        throw new InvalidClassException("不允许反序列化动态代理");
+    }
+}
@@ -1,7 +1,11 @@
 package cn.protocol;
 
+import cn.message.Message;
+import cn.protocol.binary.BinaryCodecs;
+import cn.protocol.protobuf.ProtobufCodecs;
 import com.alibaba.fastjson.JSON;
 import com.google.gson.*;
+import io.netty.buffer.*;
 
 import java.io.*;
 import java.lang.reflect.Type;
@@ -19,6 +23,30 @@ public interface Serializer {
     // 序列化方法
     <T> byte[] serialize(T object);
 
+    /**
+     * 流式序列化 直接把正文写进 out 的 writerIndex 之后 不产生中间 byte[]
+     * 默认实现退化为先序列化成数组再拷贝 具体算法应当覆盖它
+     * @param object 要序列化的对象
+     * @param out 目标缓冲区
+     */
+    default <T> void serialize(T object, ByteBuf out) {
+        out.writeBytes(serialize(object));
+    }
+
+    /**
+     * 流式反序列化 从 in 的 readerIndex 开始读取 length 个字节的正文
+     * @param clazz 目标类型
+     * @param in 源缓冲区
+     * @param length 正文长度
+     * @return 反序列化得到的对象
+     */
+    default <T> T deserialize(Class<T> clazz, ByteBuf in, int length) {
+        byte[] bytes = new byte[length];
+        in.readBytes(bytes);
+        CodecMetrics.recordCopy(length);
+        return deserialize(clazz, bytes);
+    }
+
     enum Algorithm implements Serializer {
 
         Java {
@@ -44,22 +72,56 @@ public interface Serializer {
                     throw new RuntimeException("序列化失败", e);
                 }
             }
+
+            @Override
+            public <T> void serialize(T object, ByteBuf out) {
+                try (ObjectOutputStream oos = new ObjectOutputStream(new ByteBufOutputStream(out))) {
+                    oos.writeObject(object);
+                } catch (IOException e) {
+                    throw new RuntimeException("序列化失败", e);
+                }
+            }
+
+            @Override
+            public <T> T deserialize(Class<T> clazz, ByteBuf in, int length) {
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteBufInputStream(in, length))) {
+                    return clazz.cast(ois.readObject());
+                } catch (IOException | ClassNotFoundException e) {
+                    throw new RuntimeException("反序列化失败", e);
+                }
+            }
         },
 
         Json {
             @Override
             public <T> T deserialize(Class<T> clazz, byte[] bytes) {
-                Gson gson = new GsonBuilder().registerTypeAdapter(Class.class, new ClassCodec()).create();
                 String json = new String(bytes, StandardCharsets.UTF_8);
-                return gson.fromJson(json, clazz);
+                return GsonHolder.GSON.fromJson(json, clazz);
             }
 
             @Override
             public <T> byte[] serialize(T object) {
-                Gson gson = new GsonBuilder().registerTypeAdapter(Class.class, new ClassCodec()).create();
-                String json = gson.toJson(object);
+                String json = GsonHolder.GSON.toJson(object);
                 return json.getBytes(StandardCharsets.UTF_8);
             }
+
+            @Override
+            public <T> void serialize(T object, ByteBuf out) {
+                try (Writer writer = new OutputStreamWriter(new ByteBufOutputStream(out), StandardCharsets.UTF_8)) {
+                    GsonHolder.GSON.toJson(object, writer);
+                } catch (IOException e) {
+                    throw new RuntimeException("序列化失败", e);
+                }
+            }
+
+            @Override
+            public <T> T deserialize(Class<T> clazz, ByteBuf in, int length) {
+                try (Reader reader = new InputStreamReader(new ByteBufInputStream(in, length), StandardCharsets.UTF_8)) {
+                    return GsonHolder.GSON.fromJson(reader, clazz);
+                } catch (IOException e) {
+                    throw new RuntimeException("反序列化失败", e);
+                }
+            }
         },
 
         FastJson {
@@ -73,11 +135,84 @@ public interface Serializer {
             public <T> byte[] serialize(T object) {
                 return JSON.toJSONString(object).getBytes(StandardCharsets.UTF_8);
             }
+
+            @Override
+            public <T> void serialize(T object, ByteBuf out) {
+                try {
+                    JSON.writeJSONString(new ByteBufOutputStream(out), StandardCharsets.UTF_8, object);
+                } catch (IOException e) {
+                    throw new RuntimeException("序列化失败", e);
+                }
+            }
+
+            @Override
+            public <T> T deserialize(Class<T> clazz, ByteBuf in, int length) {
+                try {
+                    return JSON.parseObject(new ByteBufInputStream(in, length), StandardCharsets.UTF_8, clazz);
+                } catch (IOException e) {
+                    throw new RuntimeException("反序列化失败", e);
+                }
+            }
+        },
+
+        // 紧凑的二进制格式 每种消息一个手写的编解码器 只能序列化 Message
+        Binary {
+            @Override
+            public <T> T deserialize(Class<T> clazz, byte[] bytes) {
+                return BinaryCodecs.forClass(clazz).read(Unpooled.wrappedBuffer(bytes));
+            }
+
+            @Override
+            public <T> byte[] serialize(T object) {
+                ByteBuf out = Unpooled.buffer();
+                serialize(object, out);
+                return ByteBufUtil.getBytes(out);
+            }
+
+            @Override
+            public <T> void serialize(T object, ByteBuf out) {
+                BinaryCodecs.<T>forType(((Message) object).getMessageType()).write(object, out);
+            }
+
+            @Override
+            public <T> T deserialize(Class<T> clazz, ByteBuf in, int length) {
+                return BinaryCodecs.forClass(clazz).read(in.readSlice(length));
+            }
+        },
+
+        // protobuf 线格式 schema 见 src/main/proto/chat.proto 非 Java 客户端可以直接用它生成代码
+        Protobuf {
+            @Override
+            public <T> T deserialize(Class<T> clazz, byte[] bytes) {
+                return ProtobufCodecs.read(clazz, Unpooled.wrappedBuffer(bytes), bytes.length);
+            }
+
+            @Override
+            public <T> byte[] serialize(T object) {
+                ByteBuf out = Unpooled.buffer();
+                serialize(object, out);
+                return ByteBufUtil.getBytes(out);
+            }
+
+            @Override
+            public <T> void serialize(T object, ByteBuf out) {
+                ProtobufCodecs.write((Message) object, out);
+            }
+
+            @Override
+            public <T> T deserialize(Class<T> clazz, ByteBuf in, int length) {
+                return ProtobufCodecs.read(clazz, in, length);
+            }
         };
 
 
     }
 
+    // Gson 实例是线程安全的 没必要每次序列化都重新构建
+    class GsonHolder {
+        static final Gson GSON = new GsonBuilder().registerTypeAdapter(Class.class, new ClassCodec()).create();
+    }
+
     // gson处理class类型对象的时候 序列化有bug 此处修复
     class ClassCodec implements JsonSerializer<Class<?>>, JsonDeserializer<Class<?>> {
 
@@ -96,4 +231,4 @@ public interface Serializer {
             return new JsonPrimitive(src.getName());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,31 @@
+package cn.protocol.binary;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 单个消息类型的二进制编解码器 按字段顺序手写 不使用反射
+ * @param <T> 消息类型
+ */
+public interface BinaryCodec<T> {
+
+    void write(T message, ByteBuf out);
+
+    T read(ByteBuf in);
+
+    static <T> BinaryCodec<T> of(BiConsumer<T, ByteBuf> writer, Function<ByteBuf, T> reader) {
+        return new BinaryCodec<T>() {
+            @Override
+            public void write(T message, ByteBuf out) {
+                writer.accept(message, out);
+            }
+
+            @Override
+            public T read(ByteBuf in) {
+                return reader.apply(in);
+            }
+        };
+    }
+}
@@ -0,0 +1,238 @@
+package cn.protocol.binary;
+
+import cn.message.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static cn.protocol.binary.BinaryIO.*;
+
+/**
+ * 所有消息类型的二进制编解码器 按 messageType 建立索引
+ * 字段顺序就是协议的一部分 只能在末尾追加字段
+ */
+public abstract class BinaryCodecs {
+
+    private static final BinaryCodec<?>[] CODECS_BY_TYPE = new BinaryCodec<?>[128];
+    private static final Map<Class<?>, BinaryCodec<?>> CODECS_BY_CLASS = new IdentityHashMap<>();
+
+    static {
+        register(Message.LoginRequestMessage, LoginRequestMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeString(out, msg.getUsername());
+                    writeString(out, msg.getPassword());
+                    writeAlgorithm(out, msg.getSerializerAlgorithm());
+                },
+                in -> new LoginRequestMessage(readString(in), readString(in), readAlgorithm(in))));
+        register(Message.LoginResponseMessage, LoginResponseMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeBoolean(out, msg.isSuccess());
+                    writeString(out, msg.getReason());
+                },
+                in -> new LoginResponseMessage(readBoolean(in), readString(in))));
+        register(Message.ChatRequestMessage, ChatRequestMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeString(out, msg.getFrom());
+                    writeString(out, msg.getTo());
+                    writeString(out, msg.getContent());
+                },
+                in -> new ChatRequestMessage(readString(in), readString(in), readString(in))));
+        register(Message.ChatResponseMessage, ChatResponseMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeBoolean(out, msg.isSuccess());
+                    writeString(out, msg.getReason());
+                    writeString(out, msg.getFrom());
+                    writeString(out, msg.getContent());
+                },
+                in -> {
+                    ChatResponseMessage msg = new ChatResponseMessage(readBoolean(in), readString(in));
+                    msg.setFrom(readString(in));
+                    msg.setContent(readString(in));
+                    return msg;
+                }));
+        register(Message.GroupCreateRequestMessage, GroupCreateRequestMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeString(out, msg.getGroupName());
+                    writeStringSet(out, msg.getMembers());
+                },
+                in -> new GroupCreateRequestMessage(readString(in), readStringSet(in))));
+        register(Message.GroupCreateResponseMessage, GroupCreateResponseMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeBoolean(out, msg.isSuccess());
+                    writeString(out, msg.getReason());
+                },
+                in -> new GroupCreateResponseMessage(readBoolean(in), readString(in))));
+        register(Message.GroupJoinRequestMessage, GroupJoinRequestMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeString(out, msg.getUsername());
+                    writeString(out, msg.getGroupName());
+                },
+                in -> new GroupJoinRequestMessage(readString(in), readString(in))));
+        register(Message.GroupJoinResponseMessage, GroupJoinResponseMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeBoolean(out, msg.isSuccess());
+                    writeString(out, msg.getReason());
+                },
+                in -> new GroupJoinResponseMessage(readBoolean(in), readString(in))));
+        register(Message.GroupQuitRequestMessage, GroupQuitRequestMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeString(out, msg.getUsername());
+                    writeString(out, msg.getGroupName());
+                },
+                in -> new GroupQuitRequestMessage(readString(in), readString(in))));
+        register(Message.GroupQuitResponseMessage, GroupQuitResponseMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeBoolean(out, msg.isSuccess());
+                    writeString(out, msg.getReason());
+                },
+                in -> new GroupQuitResponseMessage(readBoolean(in), readString(in))));
+        register(Message.GroupChatRequestMessage, GroupChatRequestMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeString(out, msg.getFrom());
+                    writeString(out, msg.getGroupName());
+                    writeString(out, msg.getContent());
+                },
+                in -> new GroupChatRequestMessage(readString(in), readString(in), readString(in))));
+        register(Message.GroupChatResponseMessage, GroupChatResponseMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeBoolean(out, msg.isSuccess());
+                    writeString(out, msg.getReason());
+                    writeString(out, msg.getFrom());
+                    writeString(out, msg.getContent());
+                },
+                in -> {
+                    GroupChatResponseMessage msg = new GroupChatResponseMessage(readBoolean(in), readString(in));
+                    msg.setFrom(readString(in));
+                    msg.setContent(readString(in));
+                    return msg;
+                }));
+        register(Message.GroupMembersRequestMessage, GroupMembersRequestMessage.class, BinaryCodec.of(
+                (msg, out) -> writeString(out, msg.getGroupName()),
+                in -> new GroupMembersRequestMessage(readString(in))));
+        register(Message.GroupMembersResponseMessage, GroupMembersResponseMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeStringSet(out, msg.getMembers());
+                    writeVarLong(out, msg.getVersion());
+                },
+                in -> new GroupMembersResponseMessage(readStringSet(in), readVarLong(in))));
+        register(Message.PingMessage, PingMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                },
+                in -> new PingMessage()));
+        register(Message.PongMessage, PongMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                },
+                in -> new PongMessage()));
+        register(Message.HistoryRequestMessage, HistoryRequestMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeString(out, msg.getGroupName());
+                    writeString(out, msg.getPeer());
+                    writeVarLong(out, msg.getBefore());
+                    writeVarInt(out, msg.getLimit());
+                },
+                in -> new HistoryRequestMessage(readString(in), readString(in), readVarLong(in), readVarInt(in))));
+        register(Message.HistoryResponseMessage, HistoryResponseMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeBoolean(out, msg.isSuccess());
+                    writeString(out, msg.getReason());
+                    List<HistoryRecord> records = msg.getRecords();
+                    // 记录数加 1 0 表示 null
+                    writeVarInt(out, records == null ? 0 : records.size() + 1);
+                    if (records != null) {
+                        for (HistoryRecord record : records) {
+                            writeVarLong(out, record.getId());
+                            writeVarLong(out, record.getTimestamp());
+                            writeString(out, record.getFrom());
+                            writeString(out, record.getContent());
+                        }
+                    }
+                    writeVarLong(out, msg.getNextBefore());
+                },
+                in -> {
+                    HistoryResponseMessage msg = new HistoryResponseMessage(readBoolean(in), readString(in));
+                    int size = readCount(in);
+                    if (size >= 0) {
+                        List<HistoryRecord> records = new ArrayList<>();
+                        for (int i = 0; i < size; i++) {
+                            records.add(new HistoryRecord(readVarLong(in), readVarLong(in), readString(in), readString(in)));
+                        }
+                        msg.setRecords(records);
+                    }
+                    msg.setNextBefore(readVarLong(in));
+                    return msg;
+                }));
+        register(Message.RPC_MESSAGE_TYPE_REQUEST, RpcRequestMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeString(out, msg.getInterfaceName());
+                    writeString(out, msg.getMethodName());
+                    writeClass(out, msg.getReturnType());
+                    writeClasses(out, msg.getParameterTypes());
+                    writeValues(out, msg.getParameterValue());
+                },
+                in -> new RpcRequestMessage(0, readString(in), readString(in), readClass(in), readClasses(in), readValues(in))));
+        register(Message.RPC_MESSAGE_TYPE_RESPONSE, RpcResponseMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeValue(out, msg.getReturnValue());
+                    writeValue(out, msg.getExceptionValue());
+                },
+                in -> {
+                    RpcResponseMessage msg = new RpcResponseMessage();
+                    msg.setReturnValue(readValue(in));
+                    msg.setExceptionValue((Exception) readValue(in));
+                    return msg;
+                }));
+        register(Message.RPC_MESSAGE_TYPE_HANDSHAKE_REQUEST, RpcHandshakeRequestMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                },
+                in -> new RpcHandshakeRequestMessage(0)));
+        register(Message.RPC_MESSAGE_TYPE_HANDSHAKE_RESPONSE, RpcHandshakeResponseMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    List<String> methods = msg.getMethods();
+                    writeVarInt(out, methods == null ? 0 : methods.size() + 1);
+                    if (methods != null) {
+                        for (String method : methods) {
+                            writeString(out, method);
+                        }
+                    }
+                },
+                in -> {
+                    int size = readCount(in);
+                    List<String> methods = size < 0 ? null : new ArrayList<>();
+                    for (int i = 0; i < size; i++) {
+                        methods.add(readString(in));
+                    }
+                    return new RpcHandshakeResponseMessage(methods);
+                }));
+        register(Message.RPC_MESSAGE_TYPE_METHOD_REQUEST, RpcMethodRequestMessage.class, BinaryCodec.of(
+                (msg, out) -> {
+                    writeVarInt(out, msg.getMethodId());
+                    writeValues(out, msg.getParameterValue());
+                },
+                in -> new RpcMethodRequestMessage(0, readVarInt(in), readValues(in))));
+    }
+
+    private static <T extends Message> void register(int messageType, Class<T> messageClass, BinaryCodec<T> codec) {
+        CODECS_BY_TYPE[messageType] = codec;
+        CODECS_BY_CLASS.put(messageClass, codec);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> BinaryCodec<T> forType(int messageType) {
+        BinaryCodec<T> codec = (BinaryCodec<T>) CODECS_BY_TYPE[messageType & 0x7f];
+        if (codec == null) {
+            throw new IllegalArgumentException("没有消息类型 " + messageType + " 的二进制编解码器");
+        }
+        return codec;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> BinaryCodec<T> forClass(Class<T> messageClass) {
+        BinaryCodec<T> codec = (BinaryCodec<T>) CODECS_BY_CLASS.get(messageClass);
+        if (codec == null) {
+            throw new IllegalArgumentException("没有 " + messageClass.getName() + " 的二进制编解码器");
+        }
+        return codec;
+    }
+}
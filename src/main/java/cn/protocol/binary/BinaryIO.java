@@ -0,0 +1,279 @@
+package cn.protocol.binary;
+
+import cn.protocol.Classes;
+import cn.protocol.RestrictedObjectInputStream;
+import cn.protocol.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 二进制格式的基础读写工具
+ * 整数使用 varint 字符串使用 varint 长度前缀加 UTF-8 可空字段的长度或个数统一加 1, 0 表示 null
+ */
+public abstract class BinaryIO {
+
+    // 任意值的类型标签 用于 rpc 参数和返回值
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_INT = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_TRUE = 4;
+    private static final int TAG_FALSE = 5;
+    private static final int TAG_DOUBLE = 6;
+    // 其他类型退化为 jdk 序列化 只在 rpc 的少见类型上使用 解码时只接受白名单中的类型
+    private static final int TAG_SERIALIZED = 7;
+
+    public static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(ByteBuf in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint 过长");
+    }
+
+    public static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(ByteBuf in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varlong 过长");
+    }
+
+    /**
+     * 读取可空集合的元素个数 每个元素至少占 1 字节 超过剩余字节数的个数一定是伪造的
+     * 先检查再分配 防止几个字节的帧让接收方申请巨大的数组
+     * @return 元素个数 null 时返回 -1
+     */
+    public static int readCount(ByteBuf in) {
+        int count = readVarInt(in) - 1;
+        if (count > in.readableBytes()) {
+            throw new IllegalArgumentException("元素个数 " + count + " 超过剩余的 " + in.readableBytes() + " 字节");
+        }
+        return count;
+    }
+
+    public static void writeBoolean(ByteBuf out, boolean value) {
+        out.writeByte(value ? 1 : 0);
+    }
+
+    public static boolean readBoolean(ByteBuf in) {
+        return in.readByte() != 0;
+    }
+
+    public static void writeString(ByteBuf out, String value) {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+        int maxBytes = ByteBufUtil.utf8MaxBytes(value.length());
+        if (maxBytes < 0x7f) {
+            // 短字符串的长度前缀一定只占 1 字节 先占位再回填 省去一次计算 UTF-8 长度的遍历
+            int lengthIndex = out.writerIndex();
+            out.writeByte(0);
+            int written = ByteBufUtil.reserveAndWriteUtf8(out, value, maxBytes);
+            out.setByte(lengthIndex, written + 1);
+        } else {
+            writeVarInt(out, ByteBufUtil.utf8Bytes(value) + 1);
+            ByteBufUtil.writeUtf8(out, value);
+        }
+    }
+
+    public static String readString(ByteBuf in) {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        String value = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    public static void writeStringSet(ByteBuf out, Set<String> values) {
+        if (values == null) {
+            out.writeByte(0);
+            return;
+        }
+        writeVarInt(out, values.size() + 1);
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    public static Set<String> readStringSet(ByteBuf in) {
+        int size = readCount(in);
+        if (size < 0) {
+            return null;
+        }
+        Set<String> values = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    public static void writeAlgorithm(ByteBuf out, Serializer.Algorithm algorithm) {
+        out.writeByte(algorithm == null ? 0 : algorithm.ordinal() + 1);
+    }
+
+    public static Serializer.Algorithm readAlgorithm(ByteBuf in) {
+        int value = in.readByte() - 1;
+        return value < 0 ? null : Serializer.Algorithm.values()[value];
+    }
+
+    public static void writeClass(ByteBuf out, Class<?> type) {
+        writeString(out, type == null ? null : type.getName());
+    }
+
+    public static Class<?> readClass(ByteBuf in) {
+        String name = readString(in);
+        return name == null ? null : Classes.forName(name);
+    }
+
+    public static void writeClasses(ByteBuf out, Class<?>[] types) {
+        if (types == null) {
+            out.writeByte(0);
+            return;
+        }
+        writeVarInt(out, types.length + 1);
+        for (Class<?> type : types) {
+            writeClass(out, type);
+        }
+    }
+
+    public static Class<?>[] readClasses(ByteBuf in) {
+        int size = readCount(in);
+        if (size < 0) {
+            return null;
+        }
+        Class<?>[] types = new Class<?>[size];
+        for (int i = 0; i < size; i++) {
+            types[i] = readClass(in);
+        }
+        return types;
+    }
+
+    public static void writeValue(ByteBuf out, Object value) {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INT);
+            int v = (Integer) value;
+            writeVarInt(out, (v << 1) ^ (v >> 31));
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            long v = (Long) value;
+            writeVarLong(out, (v << 1) ^ (v >> 63));
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else {
+            out.writeByte(TAG_SERIALIZED);
+            int lengthIndex = out.writerIndex();
+            out.writeInt(0);
+            try (ObjectOutputStream oos = new ObjectOutputStream(new ByteBufOutputStream(out))) {
+                oos.writeObject(value);
+            } catch (IOException e) {
+                throw new RuntimeException("序列化失败", e);
+            }
+            out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+        }
+    }
+
+    public static Object readValue(ByteBuf in) {
+        int tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return readString(in);
+            case TAG_INT: {
+                int v = readVarInt(in);
+                return (v >>> 1) ^ -(v & 1);
+            }
+            case TAG_LONG: {
+                long v = readVarLong(in);
+                return (v >>> 1) ^ -(v & 1);
+            }
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_SERIALIZED: {
+                int length = in.readInt();
+                int end = in.readerIndex() + length;
+                try (ObjectInputStream ois = new RestrictedObjectInputStream(new ByteBufInputStream(in, length))) {
+                    return ois.readObject();
+                } catch (IOException | ClassNotFoundException e) {
+                    throw new RuntimeException("反序列化失败", e);
+                } finally {
+                    in.readerIndex(end);
+                }
+            }
+            default:
+                throw new IllegalArgumentException("未知的值类型标签 " + tag);
+        }
+    }
+
+    public static void writeValues(ByteBuf out, Object[] values) {
+        if (values == null) {
+            out.writeByte(0);
+            return;
+        }
+        writeVarInt(out, values.length + 1);
+        for (Object value : values) {
+            writeValue(out, value);
+        }
+    }
+
+    public static Object[] readValues(ByteBuf in) {
+        int size = readCount(in);
+        if (size < 0) {
+            return null;
+        }
+        Object[] values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = readValue(in);
+        }
+        return values;
+    }
+}
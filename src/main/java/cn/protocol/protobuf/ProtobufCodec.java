@@ -0,0 +1,39 @@
+package cn.protocol.protobuf;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.IOException;
+
+/**
+ * 单个消息类型与 chat.proto 中对应 protobuf 消息之间的映射
+ * @param <T> 消息类型
+ */
+public interface ProtobufCodec<T> {
+
+    void write(T message, CodedOutputStream out) throws IOException;
+
+    T read(CodedInputStream in) throws IOException;
+
+    interface Writer<T> {
+        void write(T message, CodedOutputStream out) throws IOException;
+    }
+
+    interface Reader<T> {
+        T read(CodedInputStream in) throws IOException;
+    }
+
+    static <T> ProtobufCodec<T> of(Writer<T> writer, Reader<T> reader) {
+        return new ProtobufCodec<T>() {
+            @Override
+            public void write(T message, CodedOutputStream out) throws IOException {
+                writer.write(message, out);
+            }
+
+            @Override
+            public T read(CodedInputStream in) throws IOException {
+                return reader.read(in);
+            }
+        };
+    }
+}
@@ -0,0 +1,602 @@
+package cn.protocol.protobuf;
+
+import cn.message.*;
+import cn.protocol.Classes;
+import cn.protocol.RestrictedObjectInputStream;
+import cn.protocol.Serializer;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * cn.message 中的消息与 src/main/proto/chat.proto 之间的映射层
+ * 直接按 protobuf 线格式读写字段 处理器仍然使用原来的消息对象
+ * null 字段不写出 读取时缺失的字段保持为 null
+ */
+public abstract class ProtobufCodecs {
+
+    private static final ProtobufCodec<?>[] CODECS_BY_TYPE = new ProtobufCodec<?>[128];
+    private static final Map<Class<?>, ProtobufCodec<?>> CODECS_BY_CLASS = new IdentityHashMap<>();
+
+    static {
+        register(Message.LoginRequestMessage, LoginRequestMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    writeString(out, 1, msg.getUsername());
+                    writeString(out, 2, msg.getPassword());
+                    if (msg.getSerializerAlgorithm() != null) {
+                        out.writeUInt32(3, msg.getSerializerAlgorithm().ordinal() + 1);
+                    }
+                },
+                in -> {
+                    String username = null, password = null;
+                    Serializer.Algorithm algorithm = null;
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        switch (WireFormat.getTagFieldNumber(tag)) {
+                            case 1: username = in.readStringRequireUtf8(); break;
+                            case 2: password = in.readStringRequireUtf8(); break;
+                            case 3: algorithm = Serializer.Algorithm.values()[in.readUInt32() - 1]; break;
+                            default: in.skipField(tag);
+                        }
+                    }
+                    return new LoginRequestMessage(username, password, algorithm);
+                }));
+        register(Message.LoginResponseMessage, LoginResponseMessage.class, responseCodec(LoginResponseMessage::new));
+        register(Message.ChatRequestMessage, ChatRequestMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    writeString(out, 1, msg.getFrom());
+                    writeString(out, 2, msg.getTo());
+                    writeString(out, 3, msg.getContent());
+                },
+                in -> {
+                    String from = null, to = null, content = null;
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        switch (WireFormat.getTagFieldNumber(tag)) {
+                            case 1: from = in.readStringRequireUtf8(); break;
+                            case 2: to = in.readStringRequireUtf8(); break;
+                            case 3: content = in.readStringRequireUtf8(); break;
+                            default: in.skipField(tag);
+                        }
+                    }
+                    return new ChatRequestMessage(from, to, content);
+                }));
+        register(Message.ChatResponseMessage, ChatResponseMessage.class, ProtobufCodec.of(
+                (msg, out) -> writeChatResponse(out, msg.isSuccess(), msg.getReason(), msg.getFrom(), msg.getContent()),
+                in -> readChatResponse(in, (success, reason) -> new ChatResponseMessage(success, reason),
+                        ChatResponseMessage::setFrom, ChatResponseMessage::setContent)));
+        register(Message.GroupCreateRequestMessage, GroupCreateRequestMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    writeString(out, 1, msg.getGroupName());
+                    writeStrings(out, 2, msg.getMembers());
+                },
+                in -> {
+                    String groupName = null;
+                    Set<String> members = new HashSet<>();
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        switch (WireFormat.getTagFieldNumber(tag)) {
+                            case 1: groupName = in.readStringRequireUtf8(); break;
+                            case 2: members.add(in.readStringRequireUtf8()); break;
+                            default: in.skipField(tag);
+                        }
+                    }
+                    return new GroupCreateRequestMessage(groupName, members);
+                }));
+        register(Message.GroupCreateResponseMessage, GroupCreateResponseMessage.class, responseCodec(GroupCreateResponseMessage::new));
+        register(Message.GroupJoinRequestMessage, GroupJoinRequestMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    writeString(out, 1, msg.getUsername());
+                    writeString(out, 2, msg.getGroupName());
+                },
+                in -> readGroupMemberRequest(in, GroupJoinRequestMessage::new)));
+        register(Message.GroupJoinResponseMessage, GroupJoinResponseMessage.class, responseCodec(GroupJoinResponseMessage::new));
+        register(Message.GroupQuitRequestMessage, GroupQuitRequestMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    writeString(out, 1, msg.getUsername());
+                    writeString(out, 2, msg.getGroupName());
+                },
+                in -> readGroupMemberRequest(in, GroupQuitRequestMessage::new)));
+        register(Message.GroupQuitResponseMessage, GroupQuitResponseMessage.class, responseCodec(GroupQuitResponseMessage::new));
+        register(Message.GroupChatRequestMessage, GroupChatRequestMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    writeString(out, 1, msg.getFrom());
+                    writeString(out, 2, msg.getGroupName());
+                    writeString(out, 3, msg.getContent());
+                },
+                in -> {
+                    String from = null, groupName = null, content = null;
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        switch (WireFormat.getTagFieldNumber(tag)) {
+                            case 1: from = in.readStringRequireUtf8(); break;
+                            case 2: groupName = in.readStringRequireUtf8(); break;
+                            case 3: content = in.readStringRequireUtf8(); break;
+                            default: in.skipField(tag);
+                        }
+                    }
+                    return new GroupChatRequestMessage(from, groupName, content);
+                }));
+        register(Message.GroupChatResponseMessage, GroupChatResponseMessage.class, ProtobufCodec.of(
+                (msg, out) -> writeChatResponse(out, msg.isSuccess(), msg.getReason(), msg.getFrom(), msg.getContent()),
+                in -> readChatResponse(in, (success, reason) -> new GroupChatResponseMessage(success, reason),
+                        GroupChatResponseMessage::setFrom, GroupChatResponseMessage::setContent)));
+        register(Message.GroupMembersRequestMessage, GroupMembersRequestMessage.class, ProtobufCodec.of(
+                (msg, out) -> writeString(out, 1, msg.getGroupName()),
+                in -> {
+                    String groupName = null;
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        if (WireFormat.getTagFieldNumber(tag) == 1) {
+                            groupName = in.readStringRequireUtf8();
+                        } else {
+                            in.skipField(tag);
+                        }
+                    }
+                    return new GroupMembersRequestMessage(groupName);
+                }));
+        register(Message.GroupMembersResponseMessage, GroupMembersResponseMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    writeStrings(out, 1, msg.getMembers());
+                    if (msg.getVersion() != 0) {
+                        out.writeUInt64(2, msg.getVersion());
+                    }
+                },
+                in -> {
+                    Set<String> members = new HashSet<>();
+                    long version = 0;
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        switch (WireFormat.getTagFieldNumber(tag)) {
+                            case 1:
+                                members.add(in.readStringRequireUtf8());
+                                break;
+                            case 2:
+                                version = in.readUInt64();
+                                break;
+                            default:
+                                in.skipField(tag);
+                        }
+                    }
+                    return new GroupMembersResponseMessage(members, version);
+                }));
+        register(Message.PingMessage, PingMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                },
+                in -> {
+                    in.skipMessage();
+                    return new PingMessage();
+                }));
+        register(Message.PongMessage, PongMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                },
+                in -> {
+                    in.skipMessage();
+                    return new PongMessage();
+                }));
+        register(Message.HistoryRequestMessage, HistoryRequestMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    writeString(out, 1, msg.getGroupName());
+                    writeString(out, 2, msg.getPeer());
+                    if (msg.getBefore() != 0) {
+                        out.writeSInt64(3, msg.getBefore());
+                    }
+                    if (msg.getLimit() != 0) {
+                        out.writeUInt32(4, msg.getLimit());
+                    }
+                },
+                in -> {
+                    String groupName = null, peer = null;
+                    long before = 0;
+                    int limit = 0;
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        switch (WireFormat.getTagFieldNumber(tag)) {
+                            case 1: groupName = in.readStringRequireUtf8(); break;
+                            case 2: peer = in.readStringRequireUtf8(); break;
+                            case 3: before = in.readSInt64(); break;
+                            case 4: limit = in.readUInt32(); break;
+                            default: in.skipField(tag);
+                        }
+                    }
+                    return new HistoryRequestMessage(groupName, peer, before, limit);
+                }));
+        register(Message.HistoryResponseMessage, HistoryResponseMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    if (msg.isSuccess()) {
+                        out.writeBool(1, true);
+                    }
+                    writeString(out, 2, msg.getReason());
+                    if (msg.getRecords() != null) {
+                        for (HistoryRecord record : msg.getRecords()) {
+                            writeHistoryRecord(out, 3, record);
+                        }
+                    }
+                    if (msg.getNextBefore() != 0) {
+                        out.writeUInt64(4, msg.getNextBefore());
+                    }
+                },
+                in -> {
+                    boolean success = false;
+                    String reason = null;
+                    List<HistoryRecord> records = new ArrayList<>();
+                    long nextBefore = 0;
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        switch (WireFormat.getTagFieldNumber(tag)) {
+                            case 1: success = in.readBool(); break;
+                            case 2: reason = in.readStringRequireUtf8(); break;
+                            case 3: records.add(readHistoryRecord(in)); break;
+                            case 4: nextBefore = in.readUInt64(); break;
+                            default: in.skipField(tag);
+                        }
+                    }
+                    HistoryResponseMessage msg = new HistoryResponseMessage(success, reason);
+                    msg.setRecords(records);
+                    msg.setNextBefore(nextBefore);
+                    return msg;
+                }));
+        register(Message.RPC_MESSAGE_TYPE_REQUEST, RpcRequestMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    writeString(out, 1, msg.getInterfaceName());
+                    writeString(out, 2, msg.getMethodName());
+                    if (msg.getReturnType() != null) {
+                        out.writeString(3, msg.getReturnType().getName());
+                    }
+                    if (msg.getParameterTypes() != null) {
+                        for (Class<?> type : msg.getParameterTypes()) {
+                            out.writeString(4, type.getName());
+                        }
+                    }
+                    if (msg.getParameterValue() != null) {
+                        for (Object value : msg.getParameterValue()) {
+                            writeValue(out, 5, value);
+                        }
+                    }
+                },
+                in -> {
+                    String interfaceName = null, methodName = null;
+                    Class<?> returnType = null;
+                    List<Class<?>> parameterTypes = new ArrayList<>();
+                    List<Object> parameterValues = new ArrayList<>();
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        switch (WireFormat.getTagFieldNumber(tag)) {
+                            case 1: interfaceName = in.readStringRequireUtf8(); break;
+                            case 2: methodName = in.readStringRequireUtf8(); break;
+                            case 3: returnType = Classes.forName(in.readStringRequireUtf8()); break;
+                            case 4: parameterTypes.add(Classes.forName(in.readStringRequireUtf8())); break;
+                            case 5: parameterValues.add(readValue(in)); break;
+                            default: in.skipField(tag);
+                        }
+                    }
+                    return new RpcRequestMessage(0, interfaceName, methodName, returnType,
+                            parameterTypes.toArray(new Class<?>[0]), parameterValues.toArray());
+                }));
+        register(Message.RPC_MESSAGE_TYPE_RESPONSE, RpcResponseMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    if (msg.getReturnValue() != null) {
+                        writeValue(out, 1, msg.getReturnValue());
+                    }
+                    if (msg.getExceptionValue() != null) {
+                        writeValue(out, 2, msg.getExceptionValue());
+                    }
+                },
+                in -> {
+                    RpcResponseMessage msg = new RpcResponseMessage();
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        switch (WireFormat.getTagFieldNumber(tag)) {
+                            case 1: msg.setReturnValue(readValue(in)); break;
+                            case 2: msg.setExceptionValue((Exception) readValue(in)); break;
+                            default: in.skipField(tag);
+                        }
+                    }
+                    return msg;
+                }));
+        register(Message.RPC_MESSAGE_TYPE_HANDSHAKE_REQUEST, RpcHandshakeRequestMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                },
+                in -> {
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        in.skipField(tag);
+                    }
+                    return new RpcHandshakeRequestMessage(0);
+                }));
+        register(Message.RPC_MESSAGE_TYPE_HANDSHAKE_RESPONSE, RpcHandshakeResponseMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    for (String method : msg.getMethods()) {
+                        out.writeString(1, method);
+                    }
+                },
+                in -> {
+                    List<String> methods = new ArrayList<>();
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        switch (WireFormat.getTagFieldNumber(tag)) {
+                            case 1: methods.add(in.readStringRequireUtf8()); break;
+                            default: in.skipField(tag);
+                        }
+                    }
+                    return new RpcHandshakeResponseMessage(methods);
+                }));
+        register(Message.RPC_MESSAGE_TYPE_METHOD_REQUEST, RpcMethodRequestMessage.class, ProtobufCodec.of(
+                (msg, out) -> {
+                    if (msg.getMethodId() != 0) {
+                        out.writeUInt32(1, msg.getMethodId());
+                    }
+                    if (msg.getParameterValue() != null) {
+                        for (Object value : msg.getParameterValue()) {
+                            writeValue(out, 2, value);
+                        }
+                    }
+                },
+                in -> {
+                    int methodId = 0;
+                    List<Object> parameterValues = new ArrayList<>();
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        switch (WireFormat.getTagFieldNumber(tag)) {
+                            case 1: methodId = in.readUInt32(); break;
+                            case 2: parameterValues.add(readValue(in)); break;
+                            default: in.skipField(tag);
+                        }
+                    }
+                    return new RpcMethodRequestMessage(0, methodId, parameterValues.toArray());
+                }));
+    }
+
+    private static <T extends Message> void register(int messageType, Class<T> messageClass, ProtobufCodec<T> codec) {
+        CODECS_BY_TYPE[messageType] = codec;
+        CODECS_BY_CLASS.put(messageClass, codec);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> ProtobufCodec<T> forType(int messageType) {
+        ProtobufCodec<T> codec = (ProtobufCodec<T>) CODECS_BY_TYPE[messageType & 0x7f];
+        if (codec == null) {
+            throw new IllegalArgumentException("没有消息类型 " + messageType + " 的 protobuf 映射");
+        }
+        return codec;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> ProtobufCodec<T> forClass(Class<T> messageClass) {
+        ProtobufCodec<T> codec = (ProtobufCodec<T>) CODECS_BY_CLASS.get(messageClass);
+        if (codec == null) {
+            throw new IllegalArgumentException("没有 " + messageClass.getName() + " 的 protobuf 映射");
+        }
+        return codec;
+    }
+
+    /**
+     * 把消息按 protobuf 线格式写进 out 单块缓冲区时直接写入其底层内存
+     * 空间不够就扩容后重写 所以不需要事先计算消息长度
+     */
+    public static void write(Message message, ByteBuf out) {
+        ProtobufCodec<Message> codec = forType(message.getMessageType());
+        try {
+            int start = out.writerIndex();
+            int capacity = Math.max(out.writableBytes(), 64);
+            while (true) {
+                out.ensureWritable(capacity);
+                if (out.nioBufferCount() != 1) {
+                    CodedOutputStream cos = CodedOutputStream.newInstance(new ByteBufOutputStream(out), 256);
+                    codec.write(message, cos);
+                    cos.flush();
+                    return;
+                }
+                ByteBuffer nio = out.nioBuffer(start, out.writableBytes());
+                CodedOutputStream cos = CodedOutputStream.newInstance(nio);
+                try {
+                    codec.write(message, cos);
+                    cos.flush();
+                } catch (CodedOutputStream.OutOfSpaceException e) {
+                    capacity = out.writableBytes() << 1;
+                    continue;
+                }
+                out.writerIndex(start + nio.position());
+                return;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("序列化失败", e);
+        }
+    }
+
+    /**
+     * 从 in 读取 length 字节的 protobuf 正文 直接解析底层内存 不拷贝
+     */
+    public static <T> T read(Class<T> messageClass, ByteBuf in, int length) {
+        try {
+            CodedInputStream cis = in.nioBufferCount() == 1
+                    ? CodedInputStream.newInstance(in.nioBuffer(in.readerIndex(), length))
+                    : CodedInputStream.newInstance(Arrays.asList(in.nioBuffers(in.readerIndex(), length)));
+            T message = forClass(messageClass).read(cis);
+            in.skipBytes(length);
+            return message;
+        } catch (IOException e) {
+            throw new RuntimeException("反序列化失败", e);
+        }
+    }
+
+    // Response { bool success = 1; string reason = 2; }
+    private static <T extends AbstractResponseMessage> ProtobufCodec<T> responseCodec(BiFunction<Boolean, String, T> factory) {
+        return ProtobufCodec.of(
+                (msg, out) -> {
+                    if (msg.isSuccess()) {
+                        out.writeBool(1, true);
+                    }
+                    writeString(out, 2, msg.getReason());
+                },
+                in -> {
+                    boolean success = false;
+                    String reason = null;
+                    for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                        switch (WireFormat.getTagFieldNumber(tag)) {
+                            case 1: success = in.readBool(); break;
+                            case 2: reason = in.readStringRequireUtf8(); break;
+                            default: in.skipField(tag);
+                        }
+                    }
+                    return factory.apply(success, reason);
+                });
+    }
+
+    // ChatResponse { bool success = 1; string reason = 2; string from = 3; string content = 4; }
+    private static void writeChatResponse(CodedOutputStream out, boolean success, String reason, String from, String content) throws IOException {
+        if (success) {
+            out.writeBool(1, true);
+        }
+        writeString(out, 2, reason);
+        writeString(out, 3, from);
+        writeString(out, 4, content);
+    }
+
+    private static <T> T readChatResponse(CodedInputStream in, BiFunction<Boolean, String, T> factory,
+                                          BiConsumer<T, String> fromSetter,
+                                          BiConsumer<T, String> contentSetter) throws IOException {
+        boolean success = false;
+        String reason = null, from = null, content = null;
+        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case 1: success = in.readBool(); break;
+                case 2: reason = in.readStringRequireUtf8(); break;
+                case 3: from = in.readStringRequireUtf8(); break;
+                case 4: content = in.readStringRequireUtf8(); break;
+                default: in.skipField(tag);
+            }
+        }
+        T msg = factory.apply(success, reason);
+        fromSetter.accept(msg, from);
+        contentSetter.accept(msg, content);
+        return msg;
+    }
+
+    // GroupMemberRequest { string username = 1; string group_name = 2; }
+    private static <T> T readGroupMemberRequest(CodedInputStream in, BiFunction<String, String, T> factory) throws IOException {
+        String username = null, groupName = null;
+        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case 1: username = in.readStringRequireUtf8(); break;
+                case 2: groupName = in.readStringRequireUtf8(); break;
+                default: in.skipField(tag);
+            }
+        }
+        return factory.apply(username, groupName);
+    }
+
+    // HistoryRecord { uint64 id = 1; int64 timestamp = 2; string from = 3; string content = 4; } 嵌套消息要先写长度
+    private static void writeHistoryRecord(CodedOutputStream out, int field, HistoryRecord record) throws IOException {
+        int size = 0;
+        if (record.getId() != 0) {
+            size += CodedOutputStream.computeUInt64Size(1, record.getId());
+        }
+        if (record.getTimestamp() != 0) {
+            size += CodedOutputStream.computeInt64Size(2, record.getTimestamp());
+        }
+        if (record.getFrom() != null) {
+            size += CodedOutputStream.computeStringSize(3, record.getFrom());
+        }
+        if (record.getContent() != null) {
+            size += CodedOutputStream.computeStringSize(4, record.getContent());
+        }
+        out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+        if (record.getId() != 0) {
+            out.writeUInt64(1, record.getId());
+        }
+        if (record.getTimestamp() != 0) {
+            out.writeInt64(2, record.getTimestamp());
+        }
+        writeString(out, 3, record.getFrom());
+        writeString(out, 4, record.getContent());
+    }
+
+    private static HistoryRecord readHistoryRecord(CodedInputStream in) throws IOException {
+        int limit = in.pushLimit(in.readRawVarint32());
+        HistoryRecord record = new HistoryRecord();
+        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case 1: record.setId(in.readUInt64()); break;
+                case 2: record.setTimestamp(in.readInt64()); break;
+                case 3: record.setFrom(in.readStringRequireUtf8()); break;
+                case 4: record.setContent(in.readStringRequireUtf8()); break;
+                default: in.skipField(tag);
+            }
+        }
+        in.popLimit(limit);
+        return record;
+    }
+
+    private static void writeString(CodedOutputStream out, int field, String value) throws IOException {
+        if (value != null) {
+            out.writeString(field, value);
+        }
+    }
+
+    private static void writeStrings(CodedOutputStream out, int field, Set<String> values) throws IOException {
+        if (values != null) {
+            for (String value : values) {
+                out.writeString(field, value);
+            }
+        }
+    }
+
+    // Value 是嵌套消息 需要先算出长度 null 写成一个空的 Value
+    private static void writeValue(CodedOutputStream out, int field, Object value) throws IOException {
+        out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        if (value == null) {
+            out.writeUInt32NoTag(0);
+        } else if (value instanceof String) {
+            out.writeUInt32NoTag(CodedOutputStream.computeStringSize(1, (String) value));
+            out.writeString(1, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeUInt32NoTag(CodedOutputStream.computeSInt32Size(2, (Integer) value));
+            out.writeSInt32(2, (Integer) value);
+        } else if (value instanceof Long) {
+            out.writeUInt32NoTag(CodedOutputStream.computeSInt64Size(3, (Long) value));
+            out.writeSInt64(3, (Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeUInt32NoTag(CodedOutputStream.computeBoolSize(4, (Boolean) value));
+            out.writeBool(4, (Boolean) value);
+        } else if (value instanceof Double) {
+            out.writeUInt32NoTag(CodedOutputStream.computeDoubleSize(5, (Double) value));
+            out.writeDouble(5, (Double) value);
+        } else {
+            byte[] bytes = Serializer.Algorithm.Java.serialize(value);
+            out.writeUInt32NoTag(CodedOutputStream.computeByteArraySize(6, bytes));
+            out.writeByteArray(6, bytes);
+        }
+    }
+
+    // java_serialized 来自对端 只接受白名单中的类型 不能走 Java 算法的任意反序列化
+    private static Object readSerialized(byte[] bytes) throws IOException {
+        try (ObjectInputStream ois = new RestrictedObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("反序列化失败", e);
+        }
+    }
+
+    private static Object readValue(CodedInputStream in) throws IOException {
+        int limit = in.pushLimit(in.readRawVarint32());
+        Object value = null;
+        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case 1: value = in.readStringRequireUtf8(); break;
+                case 2: value = in.readSInt32(); break;
+                case 3: value = in.readSInt64(); break;
+                case 4: value = in.readBool(); break;
+                case 5: value = in.readDouble(); break;
+                case 6: value = readSerialized(in.readByteArray()); break;
+                default: in.skipField(tag);
+            }
+        }
+        in.popLimit(limit);
+        return value;
+    }
+}
@@ -1,8 +1,13 @@
 package cn.server;
 
 
+import cn.config.Config;
+import cn.message.Message;
+import cn.metrics.MetricsReporter;
+import cn.protocol.FlushConsolidator;
 import cn.protocol.MessageCodecSharable;
 import cn.protocol.ProcotolFrameDecoder;
+import cn.server.backpressure.BackpressureHandler;
 import cn.server.handler.*;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
@@ -25,16 +30,22 @@ public class ChatServer {
         LoggingHandler LOGGING_HANDLER = new LoggingHandler(LogLevel.DEBUG);
         // 一个handler提供信息编码
         MessageCodecSharable MESSAGE_CODEC = new MessageCodecSharable();
-        // 一个handler提供登录功能
-        LoginRequestMessageHandler LOGIN_HANDLER = new LoginRequestMessageHandler();
-        // 一个handler提供点对点发送消息功能
-        ChatRequestMessageHandler CHAT_HANDLER = new ChatRequestMessageHandler();
-        // 五个handler提供聊天组功能
-        GroupCreateRequestMessageHandler GROUP_CREATE_HANDLER = new GroupCreateRequestMessageHandler();
-        GroupJoinRequestMessageHandler GROUP_JOIN_HANDLER = new GroupJoinRequestMessageHandler();
-        GroupMembersRequestMessageHandler GROUP_MEMBERS_HANDLER = new GroupMembersRequestMessageHandler();
-        GroupQuitRequestMessageHandler GROUP_QUIT_HANDLER = new GroupQuitRequestMessageHandler();
-        GroupChatRequestMessageHandler GROUP_CHAT_HANDLER = new GroupChatRequestMessageHandler();
+        // 按消息类型分发给各个业务处理器 每条消息只经过一个 handler
+        MessageDispatcher DISPATCHER = new MessageDispatcher()
+                // 登录
+                .register(Message.LoginRequestMessage, new LoginRequestMessageHandler())
+                // 点对点发送消息
+                .register(Message.ChatRequestMessage, new ChatRequestMessageHandler())
+                // 聊天组功能
+                .register(Message.GroupCreateRequestMessage, new GroupCreateRequestMessageHandler())
+                .register(Message.GroupJoinRequestMessage, new GroupJoinRequestMessageHandler())
+                .register(Message.GroupMembersRequestMessage, new GroupMembersRequestMessageHandler())
+                .register(Message.GroupQuitRequestMessage, new GroupQuitRequestMessageHandler())
+                .register(Message.GroupChatRequestMessage, new GroupChatRequestMessageHandler())
+                // 聊天记录
+                .register(Message.HistoryRequestMessage, new HistoryRequestMessageHandler())
+                // 心跳包只用来刷新读空闲计时 到达这里就已经完成了使命
+                .register(Message.PingMessage, (ctx, msg) -> { });
         // 一个handler提供下线功能
         QuitHandler QUIT_HANDLER = new QuitHandler();
 
@@ -44,9 +55,18 @@ public class ChatServer {
             serverBootstrap.group(boss, worker);
             // 设置全连接队列大小 是在accept无法处理的时候额外可以保存多少的连接
             serverBootstrap.option(ChannelOption.SO_BACKLOG,5);
+            // 出站缓冲区超过高水位后 channel 变为不可写 降到低水位以下恢复可写
+            serverBootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                    Config.getWriteBufferLowWaterMark(), Config.getWriteBufferHighWaterMark()));
             serverBootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
                 @Override
                 protected void initChannel(SocketChannel ch) throws Exception {
+                    // 合并 flush 必须最靠近 head
+                    if (Config.isFlushConsolidationEnabled()) {
+                        ch.pipeline().addLast(new FlushConsolidator());
+                    }
+                    // 慢消费者的出站积压 要在所有编码器之后
+                    ch.pipeline().addLast(new BackpressureHandler());
                     ch.pipeline().addLast(new ProcotolFrameDecoder());
                     //ch.pipeline().addLast(LOGGING_HANDLER);//调试时可以打开
                     ch.pipeline().addLast(MESSAGE_CODEC);
@@ -63,16 +83,11 @@ public class ChatServer {
                             }
                         }
                     });
-                    ch.pipeline().addLast(LOGIN_HANDLER);
-                    ch.pipeline().addLast(CHAT_HANDLER);
-                    ch.pipeline().addLast(GROUP_CREATE_HANDLER);
-                    ch.pipeline().addLast(GROUP_JOIN_HANDLER);
-                    ch.pipeline().addLast(GROUP_MEMBERS_HANDLER);
-                    ch.pipeline().addLast(GROUP_QUIT_HANDLER);
-                    ch.pipeline().addLast(GROUP_CHAT_HANDLER);
+                    ch.pipeline().addLast(DISPATCHER);
                     ch.pipeline().addLast(QUIT_HANDLER);
                 }
             });
+            MetricsReporter.start(worker);
             Channel channel = serverBootstrap.bind(8081).sync().channel();
             channel.closeFuture().sync();
         } catch (InterruptedException e) {
@@ -1,12 +1,21 @@
 package cn.server;
 
 
+import cn.config.Config;
+import cn.message.Message;
+import cn.metrics.MetricsReporter;
+import cn.protocol.FlushConsolidator;
 import cn.protocol.MessageCodecSharable;
 import cn.protocol.ProcotolFrameDecoder;
+import cn.server.handler.MessageDispatcher;
+import cn.server.handler.RpcHandshakeRequestMessageHandler;
+import cn.server.handler.RpcMethodRequestMessageHandler;
 import cn.server.handler.RpcRequestMessageHandler;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
@@ -22,20 +31,32 @@ public class RpcServer {
         NioEventLoopGroup worker = new NioEventLoopGroup();
         LoggingHandler LOGGING_HANDLER = new LoggingHandler(LogLevel.DEBUG);
         MessageCodecSharable MESSAGE_CODEC = new MessageCodecSharable();
-        RpcRequestMessageHandler RPC_HANDLER = new RpcRequestMessageHandler();
+        MessageDispatcher DISPATCHER = new MessageDispatcher()
+                .register(Message.RPC_MESSAGE_TYPE_REQUEST, new RpcRequestMessageHandler())
+                // 握手交换方法表 之后的调用只携带方法编号
+                .register(Message.RPC_MESSAGE_TYPE_HANDSHAKE_REQUEST, new RpcHandshakeRequestMessageHandler())
+                .register(Message.RPC_MESSAGE_TYPE_METHOD_REQUEST, new RpcMethodRequestMessageHandler());
         try {
             ServerBootstrap serverBootstrap = new ServerBootstrap();
             serverBootstrap.channel(NioServerSocketChannel.class);
             serverBootstrap.group(boss, worker);
+            // 出站缓冲区超过高水位后 channel 变为不可写 降到低水位以下恢复可写
+            serverBootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                    Config.getWriteBufferLowWaterMark(), Config.getWriteBufferHighWaterMark()));
             serverBootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
                 @Override
                 protected void initChannel(SocketChannel ch) throws Exception {
+                    // 合并 flush 必须最靠近 head
+                    if (Config.isFlushConsolidationEnabled()) {
+                        ch.pipeline().addLast(new FlushConsolidator());
+                    }
                     ch.pipeline().addLast(new ProcotolFrameDecoder());
                     //ch.pipeline().addLast(LOGGING_HANDLER);
                     ch.pipeline().addLast(MESSAGE_CODEC);
-                    ch.pipeline().addLast(RPC_HANDLER);
+                    ch.pipeline().addLast(DISPATCHER);
                 }
             });
+            MetricsReporter.start(worker);
             Channel channel = serverBootstrap.bind(8081).sync().channel();
             channel.closeFuture().sync();
         } catch (InterruptedException e) {
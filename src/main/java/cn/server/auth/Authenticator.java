@@ -0,0 +1,134 @@
+package cn.server.auth;
+
+import cn.config.Config;
+import cn.metrics.Histogram;
+import cn.metrics.MetricsReporter;
+import cn.server.service.UserServiceFactory;
+import io.netty.util.concurrent.*;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 登录认证 慢哈希校验放在专门的有界线程池里 不占用 eventLoop
+ * 校验通过的凭据短时间内缓存起来 重连风暴时同一用户不必重复计算慢哈希
+ * 缓存里只保存用进程内随机密钥计算的 HMAC 不保存明文密码
+ */
+public abstract class Authenticator {
+
+    private static final long CACHE_NANOS = TimeUnit.SECONDS.toNanos(Config.getAuthCacheSeconds());
+    private static final EventExecutorGroup EXECUTORS = new DefaultEventExecutorGroup(Config.getAuthThreads(),
+            new DefaultThreadFactory("auth", true), Config.getAuthQueueSize(), RejectedExecutionHandlers.reject());
+    private static final Map<String, Verified> VERIFIED = new ConcurrentHashMap<>();
+    private static final byte[] CACHE_KEY = new byte[32];
+
+    private static final Histogram LATENCY_MICROS = new Histogram();
+    private static final LongAdder CACHE_HITS = new LongAdder();
+    private static final LongAdder REJECTED = new LongAdder();
+
+    static {
+        new SecureRandom().nextBytes(CACHE_KEY);
+        if (CACHE_NANOS > 0) {
+            // 定期清理过期的缓存项
+            EXECUTORS.scheduleWithFixedDelay(Authenticator::evictExpired, CACHE_NANOS, CACHE_NANOS, TimeUnit.NANOSECONDS);
+        }
+        MetricsReporter.register("auth", Authenticator::report);
+    }
+
+    /**
+     * 异步校验用户名和密码 命中缓存时直接返回已完成的 future
+     * 线程池排满时 future 以 RejectedExecutionException 失败 调用方应当提示稍后重试
+     * @param executor 回调执行的线程 一般是连接所在的 eventLoop
+     * @return 校验结果
+     */
+    public static Future<Boolean> login(EventExecutor executor, String username, String password) {
+        long start = System.nanoTime();
+        if (username == null || password == null) {
+            return executor.newSucceededFuture(false);
+        }
+        byte[] mac = mac(username, password);
+        Verified verified = VERIFIED.get(username);
+        if (verified != null && verified.expiresAt - start > 0 && MessageDigest.isEqual(verified.mac, mac)) {
+            CACHE_HITS.increment();
+            LATENCY_MICROS.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            return executor.newSucceededFuture(true);
+        }
+        Promise<Boolean> promise = executor.newPromise();
+        try {
+            EXECUTORS.execute(() -> {
+                try {
+                    boolean login = UserServiceFactory.getUserService().login(username, password);
+                    if (login && CACHE_NANOS > 0) {
+                        VERIFIED.put(username, new Verified(mac, System.nanoTime() + CACHE_NANOS));
+                    }
+                    LATENCY_MICROS.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                    promise.trySuccess(login);
+                } catch (Throwable t) {
+                    promise.tryFailure(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            REJECTED.increment();
+            promise.tryFailure(e);
+        }
+        return promise;
+    }
+
+    /**
+     * 使某个用户的缓存失效 修改密码或者封禁时调用
+     */
+    public static void invalidate(String username) {
+        VERIFIED.remove(username);
+    }
+
+    private static byte[] mac(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(CACHE_KEY, "HmacSHA256"));
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void evictExpired() {
+        long now = System.nanoTime();
+        VERIFIED.values().removeIf(verified -> verified.expiresAt - now <= 0);
+    }
+
+    // 排队中还没开始执行的认证任务数
+    private static int queueDepth() {
+        int depth = 0;
+        for (EventExecutor executor : EXECUTORS) {
+            depth += ((SingleThreadEventExecutor) executor).pendingTasks();
+        }
+        return depth;
+    }
+
+    public static String report() {
+        return String.format("logins %d, queue %d, latency p50 %d us p99 %d us, cache hits %d, rejected %d",
+                LATENCY_MICROS.count(), queueDepth(), LATENCY_MICROS.percentile(50), LATENCY_MICROS.percentile(99),
+                CACHE_HITS.sum(), REJECTED.sum());
+    }
+
+    private static final class Verified {
+        private final byte[] mac;
+        private final long expiresAt;
+
+        private Verified(byte[] mac, long expiresAt) {
+            this.mac = mac;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
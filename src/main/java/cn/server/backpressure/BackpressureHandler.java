@@ -0,0 +1,277 @@
+package cn.server.backpressure;
+
+import cn.config.Config;
+import cn.message.ChatResponseMessage;
+import cn.message.Message;
+import cn.metrics.MetricsReporter;
+import cn.protocol.MessageCodecSharable;
+import cn.server.offline.OfflineStoreFactory;
+import cn.server.session.SessionFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelException;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultChannelPromise;
+import io.netty.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 出站背压 channel 不可写时(出站缓冲区超过高水位)把编码好的帧暂存在本 handler 的有界队列里
+ * 重新可写后按顺序写出 队列超过 backpressure.queue.bytes 时按照配置的策略处理慢消费者
+ * 只有聊天消息可以被丢弃、合并或转存 其他消息超出预算时只能断开连接
+ * 用 undroppablePromise 写出的帧(比如离线消息的批量投递)同样不会被丢弃
+ * 必须放在所有编码器之后、FlushConsolidator 之前 每个 channel 一个实例
+ */
+@Slf4j
+public class BackpressureHandler extends ChannelDuplexHandler {
+
+    private static final int MESSAGE_TYPE_OFFSET = 6;
+    // 被丢弃的帧对应的写操作以这个原因失败 只用来标识 不需要每次都创建
+    private static final ChannelException DROPPED_CAUSE = new ChannelException("慢消费者 消息已丢弃");
+    private static final LongAdder[] COUNTERS = new LongAdder[Action.values().length];
+
+    static {
+        for (int i = 0; i < COUNTERS.length; i++) {
+            COUNTERS[i] = new LongAdder();
+        }
+        MetricsReporter.register("backpressure", BackpressureHandler::report);
+    }
+
+    private enum Action {
+        QUEUED, DROPPED, COALESCED, SPILLED, DISCONNECTED
+    }
+
+    private final SlowConsumerPolicy policy;
+    private final int queueBytesLimit;
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private int queuedBytes;
+    // 合并策略下 队列中的省略提示以及它累计省略的聊天消息数
+    private Pending notice;
+    private int omittedChats;
+
+    public BackpressureHandler() {
+        this(Config.getSlowConsumerPolicy(), Config.getBackpressureQueueBytes());
+    }
+
+    public BackpressureHandler(SlowConsumerPolicy policy, int queueBytesLimit) {
+        this.policy = policy;
+        this.queueBytesLimit = queueBytesLimit;
+    }
+
+    /**
+     * 创建一个不可丢弃的写 promise 用它写出的帧不受慢消费者策略影响
+     * 一个 ByteBuf 里拼接了多帧时 只看第一帧的类型并不可靠 这类写操作应当使用它
+     */
+    public static ChannelPromise undroppablePromise(Channel channel) {
+        return new UndroppablePromise(channel);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        if (ctx.channel().isWritable()) {
+            // 可写事件可能已经错过 先把积压的写出去
+            drain(ctx);
+            if (queue.isEmpty()) {
+                ctx.write(msg, promise);
+                return;
+            }
+        }
+        // 已经有排队的帧时 后来的帧也要排队 保证顺序
+        ByteBuf frame = (ByteBuf) msg;
+        queue.add(new Pending(frame, promise));
+        queuedBytes += frame.readableBytes();
+        COUNTERS[Action.QUEUED.ordinal()].increment();
+        if (queuedBytes > queueBytesLimit) {
+            overBudget(ctx);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (ctx.channel().isWritable()) {
+            drain(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        discardAll();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        discardAll();
+    }
+
+    private void drain(ChannelHandlerContext ctx) {
+        boolean written = false;
+        while (!queue.isEmpty() && ctx.channel().isWritable()) {
+            Pending pending = queue.poll();
+            queuedBytes -= pending.frame.readableBytes();
+            if (pending == notice) {
+                notice = null;
+                omittedChats = 0;
+            }
+            ctx.write(pending.frame, pending.promise);
+            written = true;
+        }
+        if (written) {
+            ctx.flush();
+        }
+    }
+
+    private void overBudget(ChannelHandlerContext ctx) {
+        switch (policy) {
+            case DROP_OLDEST:
+                // 从最旧的开始丢 直到回到预算以内
+                Iterator<Pending> iterator = queue.iterator();
+                while (queuedBytes > queueBytesLimit && iterator.hasNext()) {
+                    Pending pending = iterator.next();
+                    if (isDroppable(pending)) {
+                        iterator.remove();
+                        discard(pending);
+                        COUNTERS[Action.DROPPED.ordinal()].increment();
+                    }
+                }
+                break;
+            case COALESCE:
+                int omitted = removeDroppable();
+                if (omitted > 0) {
+                    // 之前的提示也算可丢弃的帧 已经被移除了 累计数里要扣掉它
+                    if (notice != null) {
+                        omitted--;
+                    }
+                    COUNTERS[Action.COALESCED.ordinal()].add(omitted);
+                    omittedChats += omitted;
+                    ChatResponseMessage message = new ChatResponseMessage(false, "消息过多 已省略 " + omittedChats + " 条聊天消息");
+                    ByteBuf frame = MessageCodecSharable.encodeFrame(ctx.alloc(), message,
+                            MessageCodecSharable.algorithmOf(ctx.channel()));
+                    notice = new Pending(frame, ctx.newPromise());
+                    queue.add(notice);
+                    queuedBytes += frame.readableBytes();
+                }
+                break;
+            case SPILL:
+                String username = SessionFactory.getSession().getUsername(ctx.channel());
+                spill(username);
+                break;
+            default:
+                break;
+        }
+        // 策略处理之后仍然超出预算 说明积压的是不能丢弃的消息 或者策略就是断开
+        if (queuedBytes > queueBytesLimit) {
+            COUNTERS[Action.DISCONNECTED.ordinal()].increment();
+            log.debug("{} 出站积压 {} 字节 断开慢消费者", ctx.channel(), queuedBytes);
+            discardAll();
+            ctx.close();
+        }
+    }
+
+    /**
+     * 移除队列中所有可丢弃的帧
+     * @return 移除的帧数
+     */
+    private int removeDroppable() {
+        int removed = 0;
+        Iterator<Pending> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Pending pending = iterator.next();
+            if (isDroppable(pending)) {
+                iterator.remove();
+                discard(pending);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 把队列中所有可丢弃的帧转存到离线存储 帧在交给离线存储时已经拷贝 可以立即释放
+     * 写盘结果出来后再完成对应的写操作 转存失败的算作丢弃
+     */
+    private void spill(String username) {
+        Iterator<Pending> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Pending pending = iterator.next();
+            if (!isDroppable(pending)) {
+                continue;
+            }
+            iterator.remove();
+            if (username == null) {
+                discard(pending);
+                COUNTERS[Action.DROPPED.ordinal()].increment();
+                continue;
+            }
+            queuedBytes -= pending.frame.readableBytes();
+            Future<Boolean> stored = OfflineStoreFactory.getOfflineStore().store(username, pending.frame);
+            pending.frame.release();
+            stored.addListener((Future<Boolean> future) -> {
+                if (future.isSuccess() && future.getNow()) {
+                    COUNTERS[Action.SPILLED.ordinal()].increment();
+                    pending.promise.trySuccess();
+                } else {
+                    COUNTERS[Action.DROPPED.ordinal()].increment();
+                    pending.promise.tryFailure(DROPPED_CAUSE);
+                }
+            });
+        }
+    }
+
+    private static boolean isDroppable(Pending pending) {
+        if (pending.promise instanceof UndroppablePromise) {
+            return false;
+        }
+        ByteBuf frame = pending.frame;
+        int messageType = frame.getByte(frame.readerIndex() + MESSAGE_TYPE_OFFSET);
+        return messageType == Message.ChatResponseMessage || messageType == Message.GroupChatResponseMessage;
+    }
+
+    private void discard(Pending pending) {
+        queuedBytes -= pending.frame.readableBytes();
+        pending.frame.release();
+        pending.promise.tryFailure(DROPPED_CAUSE);
+    }
+
+    private void discardAll() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            discard(pending);
+        }
+    }
+
+    private static final class Pending {
+        private final ByteBuf frame;
+        private final ChannelPromise promise;
+
+        private Pending(ByteBuf frame, ChannelPromise promise) {
+            this.frame = frame;
+            this.promise = promise;
+        }
+    }
+
+    private static final class UndroppablePromise extends DefaultChannelPromise {
+        private UndroppablePromise(Channel channel) {
+            super(channel);
+        }
+    }
+
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Action action : Action.values()) {
+            sb.append(action.name().toLowerCase()).append(' ').append(COUNTERS[action.ordinal()].sum()).append(", ");
+        }
+        return sb.substring(0, sb.length() - 2);
+    }
+}
@@ -0,0 +1,15 @@
+package cn.server.backpressure;
+
+/**
+ * 慢消费者的出站队列超出预算时的处理方式
+ */
+public enum SlowConsumerPolicy {
+    // 丢弃队列中最旧的聊天消息
+    DROP_OLDEST,
+    // 把队列中的聊天消息合并成一条提示 告诉客户端省略了多少条
+    COALESCE,
+    // 把队列中的聊天消息转存到离线存储 下次登录再投递
+    SPILL,
+    // 直接断开连接
+    DISCONNECT
+}
@@ -0,0 +1,169 @@
+package cn.server.fanout;
+
+import cn.config.Config;
+import cn.message.Message;
+import cn.metrics.Histogram;
+import cn.metrics.MetricsReporter;
+import cn.protocol.MessageCodecSharable;
+import cn.protocol.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把同一条消息发给多个 channel
+ * 每种序列化方式只编码一次 各个 channel 写入共享帧的 retainedDuplicate 绕过每个 channel 上的 MessageCodecSharable
+ * 成员很多时按目标 channel 所属的 eventLoop 分批 由各自的 eventLoop 投递 每次最多投递 fanout.batch.size 个
+ * 剩下的重新排队 不会长时间占住任何一个 eventLoop 暂时不可写的 channel 稍后重试几次
+ */
+public abstract class FanOut {
+
+    private static final int ALGORITHM_COUNT = Serializer.Algorithm.values().length;
+    private static final int PARALLEL_THRESHOLD = Config.getFanOutParallelThreshold();
+    private static final int BATCH_SIZE = Config.getFanOutBatchSize();
+    // 不可写的 channel 最多推迟几次 之后不管是否可写都直接写 交给出站的背压处理
+    private static final int MAX_DEFERRALS = 3;
+    private static final long DEFER_DELAY_MICROS = 500;
+
+    // 一次扇出从开始到最后一个成员写出的耗时
+    private static final Histogram DURATION_MICROS = new Histogram();
+    // 每个成员相对扇出开始时刻的写出延迟 百分位反映成员之间的投递偏差
+    private static final Histogram SKEW_MICROS = new Histogram();
+
+    static {
+        MetricsReporter.register("fanout", FanOut::report);
+    }
+
+    public static void writeAndFlush(Collection<Channel> channels, Message message) {
+        long start = System.nanoTime();
+        // 不同连接可能协商了不同的序列化方式 按需为每种方式编码一次
+        ByteBuf[] frames = new ByteBuf[ALGORITHM_COUNT];
+        try {
+            if (channels.size() < PARALLEL_THRESHOLD) {
+                for (Channel channel : channels) {
+                    channel.writeAndFlush(frameFor(frames, channel, message).retainedDuplicate());
+                    SKEW_MICROS.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                }
+                DURATION_MICROS.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            } else {
+                schedule(channels, message, frames, start);
+            }
+        } finally {
+            for (ByteBuf frame : frames) {
+                if (frame != null) {
+                    frame.release();
+                }
+            }
+        }
+    }
+
+    private static void schedule(Collection<Channel> channels, Message message, ByteBuf[] frames, long start) {
+        Map<EventExecutor, List<Channel>> byLoop = new IdentityHashMap<>();
+        for (Channel channel : channels) {
+            frameFor(frames, channel, message);
+            byLoop.computeIfAbsent(channel.eventLoop(), loop -> new ArrayList<>()).add(channel);
+        }
+        AtomicInteger remaining = new AtomicInteger(byLoop.size());
+        for (Map.Entry<EventExecutor, List<Channel>> entry : byLoop.entrySet()) {
+            Delivery delivery = new Delivery(entry.getKey(), entry.getValue(), frames, start, remaining);
+            if (entry.getKey().inEventLoop()) {
+                delivery.run();
+            } else {
+                entry.getKey().execute(delivery);
+            }
+        }
+    }
+
+    private static ByteBuf frameFor(ByteBuf[] frames, Channel channel, Message message) {
+        Serializer.Algorithm algorithm = MessageCodecSharable.algorithmOf(channel);
+        ByteBuf frame = frames[algorithm.ordinal()];
+        if (frame == null) {
+            frame = MessageCodecSharable.encodeFrame(channel.alloc(), message, algorithm);
+            frames[algorithm.ordinal()] = frame;
+        }
+        return frame;
+    }
+
+    /**
+     * 在一个 eventLoop 上投递给属于它的成员 只在该 eventLoop 上运行
+     */
+    private static final class Delivery implements Runnable {
+        private final EventExecutor loop;
+        private final ByteBuf[] frames;
+        private final long start;
+        private final AtomicInteger remaining;
+        private List<Channel> channels;
+        private List<Channel> deferred;
+        private int index;
+        private int deferrals;
+
+        private Delivery(EventExecutor loop, List<Channel> channels, ByteBuf[] frames, long start, AtomicInteger remaining) {
+            this.loop = loop;
+            this.channels = channels;
+            this.start = start;
+            this.remaining = remaining;
+            // 每个投递任务持有一份帧的引用 全部投递完再释放
+            this.frames = frames.clone();
+            for (ByteBuf frame : this.frames) {
+                if (frame != null) {
+                    frame.retain();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int budget = BATCH_SIZE;
+            while (index < channels.size() && budget-- > 0) {
+                Channel channel = channels.get(index++);
+                if (!channel.isActive()) {
+                    continue;
+                }
+                if (!channel.isWritable() && deferrals < MAX_DEFERRALS) {
+                    if (deferred == null) {
+                        deferred = new ArrayList<>();
+                    }
+                    deferred.add(channel);
+                    continue;
+                }
+                ByteBuf frame = frames[MessageCodecSharable.algorithmOf(channel).ordinal()];
+                channel.writeAndFlush(frame.retainedDuplicate());
+                SKEW_MICROS.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            }
+            if (index < channels.size()) {
+                // 本轮额度用完 让出 eventLoop 处理其他连接的 IO 后再继续
+                loop.execute(this);
+            } else if (deferred != null) {
+                // 给不可写的 channel 一点时间把出站缓冲区写出去
+                channels = deferred;
+                deferred = null;
+                index = 0;
+                deferrals++;
+                loop.schedule(this, DEFER_DELAY_MICROS, TimeUnit.MICROSECONDS);
+            } else {
+                for (ByteBuf frame : frames) {
+                    if (frame != null) {
+                        frame.release();
+                    }
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    DURATION_MICROS.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                }
+            }
+        }
+    }
+
+    public static String report() {
+        return String.format("fan-outs %d, duration p50 %d us p99 %d us, member skew p50 %d us p99 %d us",
+                DURATION_MICROS.count(), DURATION_MICROS.percentile(50), DURATION_MICROS.percentile(99),
+                SKEW_MICROS.percentile(50), SKEW_MICROS.percentile(99));
+    }
+}
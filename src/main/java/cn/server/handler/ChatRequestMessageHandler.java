@@ -1,31 +1,85 @@
 package cn.server.handler;
 
 
+import cn.config.Config;
 import cn.message.ChatRequestMessage;
 import cn.message.ChatResponseMessage;
+import cn.protocol.ForwardableChatRequestMessage;
+import cn.protocol.MessageCodecSharable;
+import cn.server.history.HistoryLog;
+import cn.server.history.HistoryLogFactory;
+import cn.server.offline.OfflineStore;
+import cn.server.offline.OfflineStoreFactory;
+import cn.server.service.UserServiceFactory;
 import cn.server.session.SessionFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.concurrent.Future;
 
 
-@ChannelHandler.Sharable
-public class ChatRequestMessageHandler extends SimpleChannelInboundHandler<ChatRequestMessage> {
+public class ChatRequestMessageHandler implements MessageHandler<ChatRequestMessage> {
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, ChatRequestMessage msg) throws Exception {
+    public void handle(ChannelHandlerContext ctx, ChatRequestMessage msg) throws Exception {
         String to = msg.getTo();
+        appendHistory(ctx, msg);
         // 根据接收用户名得到channel
         Channel channel = SessionFactory.getSession().getChannel(to);
         // 对方在线
         if (channel != null) {
+            // 双方使用相同的序列化方式时直接转发原始正文 不再重新序列化
+            if (msg instanceof ForwardableChatRequestMessage) {
+                ByteBuf frame = ((ForwardableChatRequestMessage) msg)
+                        .forwardFrame(channel.alloc(), MessageCodecSharable.algorithmOf(channel));
+                if (frame != null) {
+                    channel.writeAndFlush(frame);
+                    return;
+                }
+            }
             ChatResponseMessage chatResponseMessage = new ChatResponseMessage(msg.getFrom(), msg.getContent());
             chatResponseMessage.setSuccess(true);
             channel.writeAndFlush(chatResponseMessage);
         }
+        // 对方不在线 但用户存在 存进离线信箱 下次登录时投递 写盘结束后再告诉发送方结果
+        else if (UserServiceFactory.getUserService().exists(to)
+                && OfflineStoreFactory.getOfflineStore() != OfflineStore.NONE) {
+            storeOffline(msg).addListener((Future<Boolean> future) -> {
+                if (future.isSuccess() && future.getNow()) {
+                    ctx.writeAndFlush(new ChatResponseMessage(true, "对方不在线 消息已离线保存"));
+                } else {
+                    ctx.writeAndFlush(new ChatResponseMessage(false, "对方不在线 离线保存失败"));
+                }
+            });
+        }
         // 对方不在线
         else {
             ctx.writeAndFlush(new ChatResponseMessage(false, "对方用户不存在或者不在线"));
         }
     }
+
+    // 没有开启聊天记录时不访问正文 以免触发延迟解析 发送方以连接绑定的用户为准
+    private void appendHistory(ChannelHandlerContext ctx, ChatRequestMessage msg) {
+        HistoryLog historyLog = HistoryLogFactory.getHistoryLog();
+        if (historyLog == HistoryLog.NONE) {
+            return;
+        }
+        String from = SessionFactory.getSession().getUsername(ctx.channel());
+        if (from != null) {
+            historyLog.append(HistoryLog.between(from, msg.getTo()), from, msg.getContent());
+        }
+    }
+
+    private Future<Boolean> storeOffline(ChatRequestMessage msg) {
+        ChatResponseMessage chatResponseMessage = new ChatResponseMessage(msg.getFrom(), msg.getContent());
+        chatResponseMessage.setSuccess(true);
+        // 接收方登录后才会协商序列化方式 离线消息使用默认方式 帧头里带着序列化方式 客户端都能解码
+        ByteBuf frame = MessageCodecSharable.encodeFrame(ByteBufAllocator.DEFAULT, chatResponseMessage,
+                Config.getSerializerAlgorithm());
+        try {
+            return OfflineStoreFactory.getOfflineStore().store(msg.getTo(), frame);
+        } finally {
+            frame.release();
+        }
+    }
 }
@@ -1,26 +1,75 @@
 package cn.server.handler;
 
 
+import cn.config.Config;
 import cn.message.GroupChatRequestMessage;
 import cn.message.GroupChatResponseMessage;
+import cn.protocol.MessageCodecSharable;
+import cn.server.fanout.FanOut;
+import cn.server.history.HistoryLog;
+import cn.server.history.HistoryLogFactory;
+import cn.server.offline.OfflineStore;
+import cn.server.offline.OfflineStoreFactory;
+import cn.server.service.UserService;
+import cn.server.service.UserServiceFactory;
+import cn.server.session.GroupSession;
 import cn.server.session.GroupSessionFactory;
+import cn.server.session.Session;
+import cn.server.session.SessionFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
 
 
-import java.util.List;
+import java.util.Collection;
+import java.util.Set;
 
-@ChannelHandler.Sharable
-public class GroupChatRequestMessageHandler extends SimpleChannelInboundHandler<GroupChatRequestMessage> {
+public class GroupChatRequestMessageHandler implements MessageHandler<GroupChatRequestMessage> {
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, GroupChatRequestMessage msg) throws Exception {
-        List<Channel> channels = GroupSessionFactory.getGroupSession()
-                .getMembersChannel(msg.getGroupName());
+    public void handle(ChannelHandlerContext ctx, GroupChatRequestMessage msg) throws Exception {
+        GroupSession groupSession = GroupSessionFactory.getGroupSession();
+        // 聊天记录的发送方以连接绑定的用户为准 不信任请求里的用户名
+        String sender = SessionFactory.getSession().getUsername(ctx.channel());
+        // 在群所属的执行器上串行处理 结果异步写回
+        groupSession.executor(msg.getGroupName()).execute(() -> {
+            Collection<Channel> channels = groupSession
+                    .getMembersChannel(msg.getGroupName());
 
-        for (Channel channel : channels) {
-            channel.writeAndFlush(new GroupChatResponseMessage(msg.getFrom(), msg.getContent()));
+            // 同一条消息只编码一次 所有成员共享编码好的帧
+            GroupChatResponseMessage response = new GroupChatResponseMessage(msg.getFrom(), msg.getContent());
+            if (sender != null) {
+                HistoryLogFactory.getHistoryLog().append(HistoryLog.group(msg.getGroupName()), sender, msg.getContent());
+            }
+            FanOut.writeAndFlush(channels, response);
+            storeOffline(groupSession.getMembers(msg.getGroupName()), channels.size(), msg.getFrom(), response);
+        });
+    }
+
+    // 不在线的成员存进离线信箱 所有人共享同一帧 成员全部在线时不用逐个检查
+    private void storeOffline(Set<String> members, int online, String from, GroupChatResponseMessage response) {
+        OfflineStore offlineStore = OfflineStoreFactory.getOfflineStore();
+        if (offlineStore == OfflineStore.NONE || online >= members.size()) {
+            return;
+        }
+        Session session = SessionFactory.getSession();
+        UserService userService = UserServiceFactory.getUserService();
+        ByteBuf frame = null;
+        try {
+            for (String member : members) {
+                if (member.equals(from) || session.getChannel(member) != null || !userService.exists(member)) {
+                    continue;
+                }
+                if (frame == null) {
+                    frame = MessageCodecSharable.encodeFrame(ByteBufAllocator.DEFAULT, response,
+                            Config.getSerializerAlgorithm());
+                }
+                offlineStore.store(member, frame);
+            }
+        } finally {
+            if (frame != null) {
+                frame.release();
+            }
         }
     }
 }
@@ -3,37 +3,36 @@ package cn.server.handler;
 
 import cn.message.GroupCreateRequestMessage;
 import cn.message.GroupCreateResponseMessage;
+import cn.server.fanout.FanOut;
 import cn.server.session.Group;
 import cn.server.session.GroupSession;
 import cn.server.session.GroupSessionFactory;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
 
 
-import java.util.List;
+import java.util.Collection;
 import java.util.Set;
 
-@ChannelHandler.Sharable
-public class GroupCreateRequestMessageHandler extends SimpleChannelInboundHandler<GroupCreateRequestMessage> {
+public class GroupCreateRequestMessageHandler implements MessageHandler<GroupCreateRequestMessage> {
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, GroupCreateRequestMessage msg) throws Exception {
+    public void handle(ChannelHandlerContext ctx, GroupCreateRequestMessage msg) throws Exception {
         String groupName = msg.getGroupName();
         Set<String> members = msg.getMembers();
         // 群管理器
         GroupSession groupSession = GroupSessionFactory.getGroupSession();
-        Group group = groupSession.createGroup(groupName, members);
-        if (group == null) {
-            // 发生成功消息
-            ctx.writeAndFlush(new GroupCreateResponseMessage(true, groupName + "创建成功"));
-            // 发送拉群消息
-            List<Channel> channels = groupSession.getMembersChannel(groupName);
-            for (Channel channel : channels) {
-                channel.writeAndFlush(new GroupCreateResponseMessage(true, "您已被拉入" + groupName));
+        // 在群所属的执行器上串行处理 结果异步写回
+        groupSession.executor(groupName).execute(() -> {
+            Group group = groupSession.createGroup(groupName, members);
+            if (group == null) {
+                // 发生成功消息
+                ctx.writeAndFlush(new GroupCreateResponseMessage(true, groupName + "创建成功"));
+                // 发送拉群消息
+                Collection<Channel> channels = groupSession.getMembersChannel(groupName);
+                FanOut.writeAndFlush(channels, new GroupCreateResponseMessage(true, "您已被拉入" + groupName));
+            } else {
+                ctx.writeAndFlush(new GroupCreateResponseMessage(false, groupName + "已经存在"));
             }
-        } else {
-            ctx.writeAndFlush(new GroupCreateResponseMessage(false, groupName + "已经存在"));
-        }
+        });
     }
 }
@@ -3,20 +3,21 @@ package cn.server.handler;
 
 import cn.message.GroupMembersRequestMessage;
 import cn.message.GroupMembersResponseMessage;
+import cn.server.session.Group;
+import cn.server.session.GroupSession;
 import cn.server.session.GroupSessionFactory;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
 
 
-import java.util.Set;
-
-@ChannelHandler.Sharable
-public class GroupMembersRequestMessageHandler extends SimpleChannelInboundHandler<GroupMembersRequestMessage> {
+public class GroupMembersRequestMessageHandler implements MessageHandler<GroupMembersRequestMessage> {
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, GroupMembersRequestMessage msg) throws Exception {
-        Set<String> members = GroupSessionFactory.getGroupSession()
-                .getMembers(msg.getGroupName());
-        ctx.writeAndFlush(new GroupMembersResponseMessage(members));
+    public void handle(ChannelHandlerContext ctx, GroupMembersRequestMessage msg) throws Exception {
+        GroupSession groupSession = GroupSessionFactory.getGroupSession();
+        // 在群所属的执行器上串行处理 结果异步写回
+        groupSession.executor(msg.getGroupName()).execute(() -> {
+            Group.Members members = groupSession
+                    .getMembersSnapshot(msg.getGroupName());
+            ctx.writeAndFlush(new GroupMembersResponseMessage(members.getMembers(), members.getVersion()));
+        });
     }
 }
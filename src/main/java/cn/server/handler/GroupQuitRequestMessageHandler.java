@@ -4,21 +4,23 @@ package cn.server.handler;
 import cn.message.GroupJoinResponseMessage;
 import cn.message.GroupQuitRequestMessage;
 import cn.server.session.Group;
+import cn.server.session.GroupSession;
 import cn.server.session.GroupSessionFactory;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
 
 
-@ChannelHandler.Sharable
-public class GroupQuitRequestMessageHandler extends SimpleChannelInboundHandler<GroupQuitRequestMessage> {
+public class GroupQuitRequestMessageHandler implements MessageHandler<GroupQuitRequestMessage> {
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, GroupQuitRequestMessage msg) throws Exception {
-        Group group = GroupSessionFactory.getGroupSession().removeMember(msg.getGroupName(), msg.getUsername());
-        if (group != null) {
-            ctx.writeAndFlush(new GroupJoinResponseMessage(true, "已退出群" + msg.getGroupName()));
-        } else {
-            ctx.writeAndFlush(new GroupJoinResponseMessage(true, msg.getGroupName() + "群不存在"));
-        }
+    public void handle(ChannelHandlerContext ctx, GroupQuitRequestMessage msg) throws Exception {
+        GroupSession groupSession = GroupSessionFactory.getGroupSession();
+        // 在群所属的执行器上串行处理 结果异步写回
+        groupSession.executor(msg.getGroupName()).execute(() -> {
+            Group group = groupSession.removeMember(msg.getGroupName(), msg.getUsername());
+            if (group != null) {
+                ctx.writeAndFlush(new GroupJoinResponseMessage(true, "已退出群" + msg.getGroupName()));
+            } else {
+                ctx.writeAndFlush(new GroupJoinResponseMessage(true, msg.getGroupName() + "群不存在"));
+            }
+        });
     }
 }
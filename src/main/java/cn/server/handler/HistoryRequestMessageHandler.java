@@ -0,0 +1,108 @@
+package cn.server.handler;
+
+
+import cn.config.Config;
+import cn.message.HistoryRecord;
+import cn.message.HistoryRequestMessage;
+import cn.message.HistoryResponseMessage;
+import cn.protocol.MessageCodecSharable;
+import cn.protocol.Serializer;
+import cn.server.history.HistoryLog;
+import cn.server.history.HistoryLogFactory;
+import cn.server.session.GroupSession;
+import cn.server.session.GroupSessionFactory;
+import cn.server.session.SessionFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.Future;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class HistoryRequestMessageHandler implements MessageHandler<HistoryRequestMessage> {
+
+    // 一页最多返回的记录数 避免响应帧超过最大帧长度
+    private static final int MAX_PAGE_SIZE = 50;
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, HistoryRequestMessage msg) throws Exception {
+        // 以连接绑定的用户为准 不信任请求里的用户名
+        String username = SessionFactory.getSession().getUsername(ctx.channel());
+        if (username == null) {
+            ctx.writeAndFlush(new HistoryResponseMessage(false, "请先登录"));
+            return;
+        }
+        if (msg.getGroupName() != null) {
+            // 成员检查在群所属的执行器上进行 不阻塞 eventLoop
+            GroupSession groupSession = GroupSessionFactory.getGroupSession();
+            groupSession.executor(msg.getGroupName()).execute(() -> {
+                if (!groupSession.getMembers(msg.getGroupName()).contains(username)) {
+                    HistoryResponseMessage response = new HistoryResponseMessage(false, "您不在群" + msg.getGroupName() + "中");
+                    response.setSequenceId(msg.getSequenceId());
+                    ctx.writeAndFlush(response);
+                    return;
+                }
+                query(ctx, msg, HistoryLog.group(msg.getGroupName()));
+            });
+        } else if (msg.getPeer() != null) {
+            query(ctx, msg, HistoryLog.between(username, msg.getPeer()));
+        } else {
+            ctx.writeAndFlush(new HistoryResponseMessage(false, "请指定群名或者对方用户名"));
+        }
+    }
+
+    private void query(ChannelHandlerContext ctx, HistoryRequestMessage msg, String conversation) {
+        int limit = msg.getLimit() <= 0 ? MAX_PAGE_SIZE : Math.min(msg.getLimit(), MAX_PAGE_SIZE);
+        // 查询在聊天记录自己的线程上执行 完成后写回
+        HistoryLogFactory.getHistoryLog().query(conversation, msg.getBefore(), limit).addListener(
+                (Future<List<HistoryRecord>> future) -> {
+                    HistoryResponseMessage response;
+                    if (future.isSuccess()) {
+                        response = page(ctx.alloc(), future.getNow(), MessageCodecSharable.algorithmOf(ctx.channel()),
+                                Config.getMaxFrameLength() - MessageCodecSharable.HEADER_LENGTH);
+                    } else {
+                        response = new HistoryResponseMessage(false, "查询聊天记录失败");
+                    }
+                    response.setSequenceId(msg.getSequenceId());
+                    ctx.writeAndFlush(response);
+                });
+    }
+
+    /**
+     * 一页除了条数还受最大帧长度限制 编码后超过时从最旧的记录开始去掉 客户端用 nextBefore 继续往前翻
+     * 最新的一条单独都放不下时跳过它 返回空页
+     * @param records 按时间从旧到新排列的记录
+     * @param maxBodyLength 编码后正文允许的最大字节数
+     */
+    private static HistoryResponseMessage page(ByteBufAllocator alloc, List<HistoryRecord> records,
+                                               Serializer.Algorithm algorithm, int maxBodyLength) {
+        if (records.isEmpty()) {
+            return new HistoryResponseMessage(records, 0);
+        }
+        int from = 0;
+        while (from < records.size()) {
+            List<HistoryRecord> page = new ArrayList<>(records.subList(from, records.size()));
+            HistoryResponseMessage response = new HistoryResponseMessage(page, page.get(0).getId());
+            int length = bodyLength(alloc, response, algorithm);
+            if (length <= maxBodyLength) {
+                return response;
+            }
+            // 按超出的比例一次去掉多条 避免一条一条地重复编码
+            from += Math.max(1, (int) ((long) page.size() * (length - maxBodyLength) / length));
+        }
+        return new HistoryResponseMessage(Collections.emptyList(), records.get(records.size() - 1).getId());
+    }
+
+    private static int bodyLength(ByteBufAllocator alloc, HistoryResponseMessage response, Serializer.Algorithm algorithm) {
+        ByteBuf body = alloc.heapBuffer();
+        try {
+            algorithm.serialize(response, body);
+            return body.readableBytes();
+        } finally {
+            body.release();
+        }
+    }
+}
@@ -3,28 +3,63 @@ package cn.server.handler;
 
 import cn.message.LoginRequestMessage;
 import cn.message.LoginResponseMessage;
-import cn.server.service.UserServiceFactory;
+import cn.protocol.MessageCodecSharable;
+import cn.server.auth.Authenticator;
+import cn.server.offline.OfflineStoreFactory;
+import cn.server.session.GroupSession;
+import cn.server.session.GroupSessionFactory;
+import cn.server.session.Session;
 import cn.server.session.SessionFactory;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
+import lombok.extern.slf4j.Slf4j;
 
 
-@ChannelHandler.Sharable //该handler无状态信息保留所以可以设置为sharable
-public class LoginRequestMessageHandler extends SimpleChannelInboundHandler<LoginRequestMessage> {// 指定该handler关注的消息类型是LoginRequestMessage
+@Slf4j
+public class LoginRequestMessageHandler implements MessageHandler<LoginRequestMessage> {// 指定该handler关注的消息类型是LoginRequestMessage
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, LoginRequestMessage msg) throws Exception {
+    public void handle(ChannelHandlerContext ctx, LoginRequestMessage msg) throws Exception {
         String username = msg.getUsername();
         String password = msg.getPassword();
-        System.out.println("------------服务器收到登录消息 userName:{"+username+"}------------");
-        boolean login = UserServiceFactory.getUserService().login(username, password);
+        log.debug("服务器收到登录消息 userName: {}", username);
+        // 慢哈希校验在认证线程池里执行 结果回到连接所在的 eventLoop 再处理
+        Authenticator.login(ctx.executor(), username, password).addListener(future -> {
+            if (!future.isSuccess()) {
+                ctx.writeAndFlush(new LoginResponseMessage(false, "服务器繁忙 请稍后再试"));
+                return;
+            }
+            // 等待认证期间连接可能已经断开 不能再绑定会话
+            if (!ctx.channel().isActive()) {
+                return;
+            }
+            onLogin(ctx, msg, (Boolean) future.getNow());
+        });
+    }
+
+    private void onLogin(ChannelHandlerContext ctx, LoginRequestMessage msg, boolean login) {
+        String username = msg.getUsername();
         LoginResponseMessage message;
         if (login) {
-            SessionFactory.getSession().bind(ctx.channel(), username);
+            Session session = SessionFactory.getSession();
+            GroupSession groupSession = GroupSessionFactory.getGroupSession();
+            // 同一连接换账号登录 先让旧账号下线
+            String previous = session.getUsername(ctx.channel());
+            if (previous != null && !previous.equals(username)) {
+                groupSession.offline(previous, ctx.channel());
+            }
+            session.bind(ctx.channel(), username);
+            groupSession.online(username, ctx.channel());
+            // 之后发给这个连接的所有消息都使用客户端声明的序列化方式
+            if (msg.getSerializerAlgorithm() != null) {
+                ctx.channel().attr(MessageCodecSharable.SERIALIZER_ALGORITHM).set(msg.getSerializerAlgorithm());
+            }
             message = new LoginResponseMessage(true, "登录成功");
         } else {
             message = new LoginResponseMessage(false, "用户名或密码不正确");
         }
         ctx.writeAndFlush(message);
+        // 登录响应之后再投递离线消息
+        if (login) {
+            OfflineStoreFactory.getOfflineStore().drain(username, ctx.channel());
+        }
     }
 }
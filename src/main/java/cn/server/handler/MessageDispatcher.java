@@ -0,0 +1,59 @@
+package cn.server.handler;
+
+
+import cn.message.Message;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * 按消息类型分发入站消息 取代一长串 SimpleChannelInboundHandler
+ * 消息类型直接作为数组下标 每条消息只经过一个 handler 一次数组查找
+ * 没有注册的类型交给默认处理器 默认只记录日志后丢弃
+ */
+@Slf4j
+@ChannelHandler.Sharable
+public class MessageDispatcher extends SimpleChannelInboundHandler<Message> {
+
+    // 消息类型在帧头里只占 1 个字节
+    private static final int MAX_MESSAGE_TYPES = 128;
+
+    private final MessageHandler<? extends Message>[] handlers = new MessageHandler<?>[MAX_MESSAGE_TYPES];
+
+    private MessageHandler<Message> defaultHandler = (ctx, msg) ->
+            log.debug("{} 没有处理器的消息类型 {} 已丢弃", ctx.channel(), msg.getMessageType());
+
+    /**
+     * 注册某种消息的处理器 必须在服务器启动前完成
+     * @param messageType 消息类型 见 Message 中的常量
+     * @param handler 处理器
+     * @return 自身 方便链式注册
+     */
+    public <T extends Message> MessageDispatcher register(int messageType, MessageHandler<T> handler) {
+        if (messageType < 0 || messageType >= MAX_MESSAGE_TYPES) {
+            throw new IllegalArgumentException("消息类型超出范围: " + messageType);
+        }
+        handlers[messageType] = handler;
+        return this;
+    }
+
+    /**
+     * 设置没有注册处理器的消息类型的处理方式
+     */
+    public MessageDispatcher otherwise(MessageHandler<Message> handler) {
+        this.defaultHandler = handler;
+        return this;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Message msg) throws Exception {
+        int messageType = msg.getMessageType();
+        // 注册时消息类型和处理器一一对应 这里的转换是安全的
+        @SuppressWarnings("unchecked")
+        MessageHandler<Message> handler = messageType >= 0 && messageType < MAX_MESSAGE_TYPES
+                ? (MessageHandler<Message>) handlers[messageType] : null;
+        (handler == null ? defaultHandler : handler).handle(ctx, msg);
+    }
+}
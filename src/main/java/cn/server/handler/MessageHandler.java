@@ -0,0 +1,16 @@
+package cn.server.handler;
+
+
+import cn.message.Message;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * 某一种消息的业务处理逻辑 注册到 MessageDispatcher 上 由它按消息类型直接调用
+ * 实现类会被所有连接共享 不能保存连接相关的状态
+ * @param <T> 处理的消息类型
+ */
+@FunctionalInterface
+public interface MessageHandler<T extends Message> {
+
+    void handle(ChannelHandlerContext ctx, T msg) throws Exception;
+}
@@ -1,6 +1,8 @@
 package cn.server.handler;
 
 
+import cn.server.session.GroupSessionFactory;
+import cn.server.session.Session;
 import cn.server.session.SessionFactory;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -15,14 +17,23 @@ public class QuitHandler extends ChannelInboundHandlerAdapter {
     // 当连接断开时触发 inactive 事件
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-        SessionFactory.getSession().unbind(ctx.channel());
+        offline(ctx);
         log.debug("{} 已经断开", ctx.channel());
     }
 
     // 当出现异常时触发
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-        SessionFactory.getSession().unbind(ctx.channel());
+        offline(ctx);
         log.debug("{} 已经异常断开 异常是{}", ctx.channel(), cause.getMessage());
     }
+
+    private void offline(ChannelHandlerContext ctx) {
+        Session session = SessionFactory.getSession();
+        String username = session.getUsername(ctx.channel());
+        if (username != null) {
+            GroupSessionFactory.getGroupSession().offline(username, ctx.channel());
+        }
+        session.unbind(ctx.channel());
+    }
 }
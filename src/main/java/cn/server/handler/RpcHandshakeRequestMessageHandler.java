@@ -0,0 +1,17 @@
+package cn.server.handler;
+
+
+import cn.message.RpcHandshakeRequestMessage;
+import cn.message.RpcHandshakeResponseMessage;
+import cn.server.service.ServicesFactory;
+import io.netty.channel.ChannelHandlerContext;
+
+public class RpcHandshakeRequestMessageHandler implements MessageHandler<RpcHandshakeRequestMessage> {
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, RpcHandshakeRequestMessage message) {
+        RpcHandshakeResponseMessage response = new RpcHandshakeResponseMessage(ServicesFactory.getMethodSignatures());
+        response.setSequenceId(message.getSequenceId());
+        ctx.writeAndFlush(response);
+    }
+}
@@ -0,0 +1,25 @@
+package cn.server.handler;
+
+
+import cn.message.RpcMethodRequestMessage;
+import cn.message.RpcResponseMessage;
+import cn.server.service.ServiceInvoker;
+import cn.server.service.ServicesFactory;
+import io.netty.channel.ChannelHandlerContext;
+
+public class RpcMethodRequestMessageHandler implements MessageHandler<RpcMethodRequestMessage> {
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, RpcMethodRequestMessage message) {
+        // 握手分配的编号就是方法表的下标 不需要任何按名字的查找
+        ServiceInvoker.MethodInvoker invoker = ServicesFactory.getInvoker(message.getMethodId());
+        if (invoker == null) {
+            RpcResponseMessage response = new RpcResponseMessage();
+            response.setSequenceId(message.getSequenceId());
+            response.setExceptionValue(new Exception("远程调用出错:未知的方法编号 " + message.getMethodId()));
+            ctx.writeAndFlush(response);
+            return;
+        }
+        RpcRequestMessageHandler.invoke(ctx, message.getSequenceId(), invoker, message.getParameterValue());
+    }
+}
@@ -3,34 +3,47 @@ package cn.server.handler;
 
 import cn.message.RpcRequestMessage;
 import cn.message.RpcResponseMessage;
-import cn.server.service.HelloService;
+import cn.server.service.ServiceInvoker;
 import cn.server.service.ServicesFactory;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
 import lombok.extern.slf4j.Slf4j;
 
-
-import java.lang.reflect.Method;
-
 @Slf4j
-@ChannelHandler.Sharable
-public class RpcRequestMessageHandler extends SimpleChannelInboundHandler<RpcRequestMessage> {
+public class RpcRequestMessageHandler implements MessageHandler<RpcRequestMessage> {
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, RpcRequestMessage message) {
+    public void handle(ChannelHandlerContext ctx, RpcRequestMessage message) {
+        ServiceInvoker.MethodInvoker invoker = ServicesFactory.getInvoker(
+                message.getInterfaceName(), message.getMethodName(), message.getParameterTypes());
+        if (invoker == null) {
+            RpcResponseMessage response = new RpcResponseMessage();
+            response.setSequenceId(message.getSequenceId());
+            response.setExceptionValue(new Exception("远程调用出错:找不到服务方法 "
+                    + message.getInterfaceName() + "." + message.getMethodName()));
+            ctx.writeAndFlush(response);
+            return;
+        }
+        invoke(ctx, message.getSequenceId(), invoker, message.getParameterValue());
+    }
+
+    /**
+     * 在服务的线程池里执行业务方法 不占用 eventLoop 完成后写回响应 线程池排满时直接返回过载响应
+     */
+    static void invoke(ChannelHandlerContext ctx, int sequenceId, ServiceInvoker.MethodInvoker invoker, Object[] args) {
         RpcResponseMessage response = new RpcResponseMessage();
-        response.setSequenceId(message.getSequenceId());
-        try {
-            HelloService service = (HelloService) ServicesFactory.getService(Class.forName(message.getInterfaceName()));
-            Method method = service.getClass().getMethod(message.getMethodName(), message.getParameterTypes());
-            Object invoke = method.invoke(service, message.getParameterValue());
-            response.setReturnValue(invoke);
-        } catch (Exception e) {
-            e.printStackTrace();
-            String msg = e.getCause().getMessage();
-            response.setExceptionValue(new Exception("远程调用出错:" + msg));
+        response.setSequenceId(sequenceId);
+        boolean accepted = invoker.getExecutor().tryExecute(() -> {
+            try {
+                response.setReturnValue(invoker.invoke(args));
+            } catch (Throwable e) {
+                log.error("远程调用出错", e);
+                response.setExceptionValue(new Exception("远程调用出错:" + e.getMessage()));
+            }
+            ctx.writeAndFlush(response);
+        });
+        if (!accepted) {
+            response.setExceptionValue(new Exception("远程调用出错:服务过载 请稍后重试"));
+            ctx.writeAndFlush(response);
         }
-        ctx.writeAndFlush(response);
     }
 }
@@ -0,0 +1,54 @@
+package cn.server.history;
+
+import cn.message.HistoryRecord;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 聊天记录 每个会话(一个群或者两个用户之间的私聊)的消息按顺序编号
+ */
+public interface HistoryLog {
+
+    /**
+     * 不保存任何记录的实现
+     */
+    HistoryLog NONE = new HistoryLog() {
+        @Override
+        public void append(String conversation, String from, String content) {
+        }
+
+        @Override
+        public Future<List<HistoryRecord>> query(String conversation, long before, int limit) {
+            return ImmediateEventExecutor.INSTANCE.newSucceededFuture(Collections.emptyList());
+        }
+    };
+
+    /**
+     * 追加一条消息 不阻塞调用线程
+     * @param conversation 会话 见 group 和 between
+     * @param from 发送方
+     * @param content 内容
+     */
+    void append(String conversation, String from, String content);
+
+    /**
+     * 查询一页记录
+     * @param conversation 会话
+     * @param before 只返回编号小于它的记录 小于 0 表示从最新一条开始
+     * @param limit 最多返回多少条
+     * @return 按时间从旧到新排列的记录
+     */
+    Future<List<HistoryRecord>> query(String conversation, long before, int limit);
+
+    static String group(String groupName) {
+        return "g:" + groupName;
+    }
+
+    // 两个用户之间的私聊 与参数顺序无关
+    static String between(String user, String peer) {
+        return user.compareTo(peer) < 0 ? "u:" + user + ":" + peer : "u:" + peer + ":" + user;
+    }
+}
@@ -0,0 +1,13 @@
+package cn.server.history;
+
+import cn.config.Config;
+
+public abstract class HistoryLogFactory {
+
+    // 没有开启 history.enabled 时不保存聊天记录
+    private static HistoryLog historyLog = Config.isHistoryEnabled() ? new SegmentedHistoryLog() : HistoryLog.NONE;
+
+    public static HistoryLog getHistoryLog() {
+        return historyLog;
+    }
+}
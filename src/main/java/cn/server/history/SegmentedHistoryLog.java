@@ -0,0 +1,364 @@
+package cn.server.history;
+
+import cn.config.Config;
+import cn.message.HistoryRecord;
+import io.netty.util.concurrent.DefaultEventExecutor;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.FastThreadLocal;
+import io.netty.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分段的只追加聊天记录
+ * 所有会话的消息按到达顺序写进同一组段文件 文件名是该段第一个字节在整个日志中的偏移
+ * 每条记录带着同一会话上一条记录的位置 内存里每个会话只保存最新位置和每隔 INDEX_INTERVAL 条的稀疏索引
+ * 查询时先用稀疏索引定位 再沿着 prev 指针向前读 每条记录一次 FileChannel 定位读 不需要把段读进内存
+ *
+ * 记录格式: 4 字节记录长度 | 8 字节 prev | 8 字节会话内编号 | 8 字节时间戳 | 会话 | 发送方 | 内容
+ * 字符串是 2 字节(内容为 4 字节)长度加 UTF-8 字节
+ */
+@Slf4j
+public class SegmentedHistoryLog implements HistoryLog {
+
+    private static final int FIXED_LENGTH = 28;
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+    private static final int INDEX_INTERVAL = 32;
+    private static final int READ_BUFFER_SIZE = 512;
+
+    private static final FastThreadLocal<ByteBuffer> READ_BUFFER = new FastThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(READ_BUFFER_SIZE);
+        }
+    };
+
+    private final File dir;
+    private final int segmentBytes;
+    // 所有写入都在这个线程上 不需要加锁
+    private final EventExecutor writer = new DefaultEventExecutor(new DefaultThreadFactory("history-writer", true));
+    private final EventExecutorGroup readers;
+    // 段的起始偏移 -> 文件 FileChannel 的定位读可以多线程并发
+    private final ConcurrentSkipListMap<Long, FileChannel> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, Conversation> conversations = new ConcurrentHashMap<>();
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(1024);
+    private FileChannel active;
+    private long activeBase;
+    private long activeSize;
+    private boolean dirty;
+
+    public SegmentedHistoryLog() {
+        this(new File(Config.getHistoryDir()), Config.getHistorySegmentBytes(), Config.getHistoryReaders());
+    }
+
+    public SegmentedHistoryLog(File dir, int segmentBytes, int readerThreads) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("无法创建聊天记录目录 " + dir);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.readers = new DefaultEventExecutorGroup(readerThreads, new DefaultThreadFactory("history-reader", true));
+        writer.submit(() -> {
+            recover();
+            return null;
+        }).syncUninterruptibly();
+        writer.scheduleWithFixedDelay(this::force, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void append(String conversation, String from, String content) {
+        long timestamp = System.currentTimeMillis();
+        writer.execute(() -> {
+            try {
+                append0(conversation, from, content, timestamp);
+            } catch (IOException e) {
+                log.error("聊天记录写入失败", e);
+            }
+        });
+    }
+
+    @Override
+    public Future<List<HistoryRecord>> query(String conversation, long before, int limit) {
+        return readers.next().submit(() -> query0(conversation, before, limit));
+    }
+
+    private void append0(String conversation, String from, String content, long timestamp) throws IOException {
+        byte[] conversationBytes = conversation.getBytes(StandardCharsets.UTF_8);
+        byte[] fromBytes = from == null ? new byte[0] : from.getBytes(StandardCharsets.UTF_8);
+        byte[] contentBytes = content == null ? new byte[0] : content.getBytes(StandardCharsets.UTF_8);
+        int length = FIXED_LENGTH + 2 + conversationBytes.length + 2 + fromBytes.length + 4 + contentBytes.length;
+        // 一条记录不能跨段 读取和恢复时超过段大小的长度都视为损坏
+        if (length > segmentBytes) {
+            log.warn("聊天记录过大 {} 字节 已丢弃", length);
+            return;
+        }
+        // 会话名和发送方的长度按无符号 short 保存
+        if (conversationBytes.length > MAX_NAME_LENGTH || fromBytes.length > MAX_NAME_LENGTH) {
+            log.warn("聊天记录的会话名或发送方过长 已丢弃");
+            return;
+        }
+        Conversation index = conversations.computeIfAbsent(conversation, key -> new Conversation());
+        if (writeBuffer.capacity() < length) {
+            writeBuffer = ByteBuffer.allocate(Math.max(length, writeBuffer.capacity() << 1));
+        }
+        ByteBuffer buffer = writeBuffer;
+        buffer.clear();
+        buffer.putInt(length);
+        buffer.putLong(index.last);
+        buffer.putLong(index.count);
+        buffer.putLong(timestamp);
+        buffer.putShort((short) conversationBytes.length).put(conversationBytes);
+        buffer.putShort((short) fromBytes.length).put(fromBytes);
+        buffer.putInt(contentBytes.length).put(contentBytes);
+        buffer.flip();
+        if (activeSize > 0 && activeSize + length > segmentBytes) {
+            roll();
+        }
+        long position = activeBase + activeSize;
+        while (buffer.hasRemaining()) {
+            active.write(buffer, activeSize + buffer.position());
+        }
+        activeSize += length;
+        dirty = true;
+        // 数据写完才更新索引 查询线程看到的位置一定可读
+        index.add(position);
+    }
+
+    private void roll() throws IOException {
+        // 切换之后定时刷盘只管新的段 旧段必须在这里刷完
+        active.force(false);
+        dirty = false;
+        activeBase += activeSize;
+        activeSize = 0;
+        active = open(activeBase);
+    }
+
+    private FileChannel open(long base) throws IOException {
+        File file = new File(dir, String.format("%020d.log", base));
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        segments.put(base, channel);
+        return channel;
+    }
+
+    private void force() {
+        if (dirty) {
+            try {
+                active.force(false);
+                dirty = false;
+            } catch (IOException e) {
+                log.error("聊天记录刷盘失败", e);
+            }
+        }
+    }
+
+    private List<HistoryRecord> query0(String conversation, long before, int limit) throws IOException {
+        Conversation index = conversations.get(conversation);
+        if (index == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        long[] start = new long[2];
+        long count = index.locate(before, start);
+        long target = before < 0 || before > count ? count - 1 : before - 1;
+        if (target < 0) {
+            return Collections.emptyList();
+        }
+        long position = start[0];
+        long id = start[1];
+        // 从稀疏索引的位置往前走到目标记录 只读记录头
+        ByteBuffer buffer = READ_BUFFER.get();
+        while (id > target) {
+            buffer.clear().limit(12);
+            read(position, buffer);
+            position = buffer.getLong(4);
+            id--;
+        }
+        List<HistoryRecord> records = new ArrayList<>(limit);
+        while (records.size() < limit && position >= 0) {
+            ByteBuffer record = readRecord(position);
+            position = record.getLong(4);
+            records.add(toRecord(record));
+        }
+        Collections.reverse(records);
+        return records;
+    }
+
+    private ByteBuffer readRecord(long position) throws IOException {
+        ByteBuffer buffer = READ_BUFFER.get();
+        buffer.clear();
+        int read = read(position, buffer);
+        int length = buffer.getInt(0);
+        if (read < 4 || length < FIXED_LENGTH || length > segmentBytes) {
+            throw new IOException("聊天记录损坏 位置 " + position + " 长度 " + length);
+        }
+        if (length > read) {
+            buffer = ByteBuffer.allocate(length);
+            read(position, buffer);
+        }
+        buffer.position(0).limit(length);
+        return buffer;
+    }
+
+    private int read(long position, ByteBuffer buffer) throws IOException {
+        Map.Entry<Long, FileChannel> segment = segments.floorEntry(position);
+        long local = position - segment.getKey();
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            int n = segment.getValue().read(buffer, local + buffer.position() - start);
+            if (n < 0) {
+                break;
+            }
+        }
+        return buffer.position() - start;
+    }
+
+    private static HistoryRecord toRecord(ByteBuffer record) {
+        record.position(12);
+        long id = record.getLong();
+        long timestamp = record.getLong();
+        // 跳过会话名
+        record.position(record.position() + 2 + (record.getShort(record.position()) & MAX_NAME_LENGTH));
+        String from = readString(record, record.getShort() & MAX_NAME_LENGTH);
+        String content = readString(record, record.getInt());
+        return new HistoryRecord(id, timestamp, from, content);
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * 启动时顺序扫描所有段 重建每个会话的索引 最后一个段末尾写了一半的记录会被截掉
+     */
+    private void recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".log"));
+        if (files == null || files.length == 0) {
+            active = open(0);
+            return;
+        }
+        Arrays.sort(files);
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        for (File file : files) {
+            long base = Long.parseLong(file.getName().substring(0, file.getName().length() - 4));
+            FileChannel channel = open(base);
+            long valid = scan(base, channel, buffer);
+            if (valid < channel.size()) {
+                log.warn("聊天记录段 {} 末尾有 {} 字节不完整 已截断", file, channel.size() - valid);
+                channel.truncate(valid);
+            }
+            active = channel;
+            activeBase = base;
+            activeSize = valid;
+        }
+        log.debug("聊天记录恢复了 {} 个段 {} 个会话", segments.size(), conversations.size());
+    }
+
+    private long scan(long base, FileChannel channel, ByteBuffer buffer) throws IOException {
+        long readPosition = 0;
+        buffer.clear().limit(0);
+        while (true) {
+            if (buffer.remaining() < 4) {
+                readPosition = refill(channel, buffer, readPosition);
+                if (buffer.remaining() < 4) {
+                    break;
+                }
+            }
+            int length = buffer.getInt(buffer.position());
+            if (length < FIXED_LENGTH || length > segmentBytes) {
+                break;
+            }
+            if (buffer.remaining() < length) {
+                if (buffer.capacity() < length) {
+                    ByteBuffer larger = ByteBuffer.allocate(length);
+                    larger.put(buffer).flip();
+                    buffer = larger;
+                }
+                readPosition = refill(channel, buffer, readPosition);
+                if (buffer.remaining() < length) {
+                    break;
+                }
+            }
+            long local = readPosition - buffer.remaining();
+            int start = buffer.position();
+            int conversationLength = buffer.getShort(start + FIXED_LENGTH) & MAX_NAME_LENGTH;
+            if (FIXED_LENGTH + 2 + conversationLength > length) {
+                break;
+            }
+            String conversation = new String(buffer.array(), buffer.arrayOffset() + start + FIXED_LENGTH + 2,
+                    conversationLength, StandardCharsets.UTF_8);
+            conversations.computeIfAbsent(conversation, key -> new Conversation()).add(base + local);
+            buffer.position(start + length);
+        }
+        return readPosition - buffer.remaining();
+    }
+
+    private static long refill(FileChannel channel, ByteBuffer buffer, long readPosition) throws IOException {
+        buffer.compact();
+        int n;
+        while (buffer.hasRemaining() && (n = channel.read(buffer, readPosition)) > 0) {
+            readPosition += n;
+        }
+        buffer.flip();
+        return readPosition;
+    }
+
+    /**
+     * 一个会话的内存索引 只有写线程修改 查询线程读取
+     */
+    private static final class Conversation {
+        // 下一条消息的编号 也就是消息总数
+        private long count;
+        // 最新一条记录的位置
+        private long last = -1;
+        // sparse[k] 是编号为 k * INDEX_INTERVAL 的记录的位置
+        private long[] sparse = new long[4];
+
+        private synchronized void add(long position) {
+            if (count % INDEX_INTERVAL == 0) {
+                int slot = (int) (count / INDEX_INTERVAL);
+                if (slot == sparse.length) {
+                    sparse = Arrays.copyOf(sparse, slot << 1);
+                }
+                sparse[slot] = position;
+            }
+            last = position;
+            count++;
+        }
+
+        /**
+         * 找到不早于目标记录且离它最近的已知位置 目标是编号为 before - 1 的记录
+         * @param start 输出 [位置, 编号]
+         * @return 当前的消息总数
+         */
+        private synchronized long locate(long before, long[] start) {
+            long target = before < 0 || before > count ? count - 1 : before - 1;
+            long slot = target / INDEX_INTERVAL + 1;
+            if (target >= 0 && slot * INDEX_INTERVAL < count) {
+                start[0] = sparse[(int) slot];
+                start[1] = slot * INDEX_INTERVAL;
+            } else {
+                start[0] = last;
+                start[1] = count - 1;
+            }
+            return count;
+        }
+    }
+}
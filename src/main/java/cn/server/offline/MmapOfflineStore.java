@@ -0,0 +1,461 @@
+package cn.server.offline;
+
+import cn.config.Config;
+import cn.server.backpressure.BackpressureHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于内存映射文件的离线信箱
+ * 用户名哈希到固定的分片 每个分片由一个单线程执行器负责 追加、投递、压缩都在这个线程上 不占用 eventLoop
+ * 每个分片把记录顺序追加到若干个固定大小的段文件里 内存中只保存 用户名 -> 记录位置 的索引 启动时扫描段文件重建
+ *
+ * 记录格式: 4 字节记录总长度 | 1 字节已投递标志 | 2 字节用户名长度 | 用户名 | 完整的帧
+ * 总长度最后写入 长度为 0 表示段内已写数据的结尾 写到一半崩溃的记录会被忽略
+ */
+@Slf4j
+public class MmapOfflineStore implements OfflineStore {
+
+    private static final int RECORD_HEADER_LENGTH = 7;
+    private static final int DELIVERED_OFFSET = 4;
+    private static final byte DELIVERED = 1;
+    // 登录投递时每批最多拼接多少字节的帧
+    private static final int DRAIN_BATCH_BYTES = 64 * 1024;
+    // channel 不可写或者一批没有送达时 隔多久再尝试投递
+    private static final long DRAIN_RETRY_MILLIS = 100;
+    // 非活动段中未投递记录的字节数低于段大小的 1/4 时 把它们搬到活动段 回收整个段文件
+    private static final int COMPACT_RATIO = 4;
+
+    private final Shard[] shards;
+
+    public MmapOfflineStore() {
+        this(new File(Config.getOfflineDir()), Config.getOfflineShards(), Config.getOfflineSegmentBytes());
+    }
+
+    public MmapOfflineStore(File dir, int shardCount, int segmentBytes) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("无法创建离线消息目录 " + dir);
+        }
+        DefaultEventExecutorGroup executors = new DefaultEventExecutorGroup(shardCount,
+                new DefaultThreadFactory("offline-shard", true));
+        shards = new Shard[shardCount];
+        int i = 0;
+        for (EventExecutor executor : executors) {
+            Shard shard = new Shard(i, dir, segmentBytes, executor);
+            shards[i++] = shard;
+            // 恢复索引也在分片线程上做 之后所有状态只由这个线程访问
+            executor.submit(() -> {
+                shard.recover();
+                return null;
+            }).syncUninterruptibly();
+            executor.scheduleWithFixedDelay(shard::maintain, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public Future<Boolean> store(String username, ByteBuf frame) {
+        Shard shard = shardOf(username);
+        // 放不进一个段的记录直接拒绝 不必交给分片线程
+        if (!shard.fits(username, frame.readableBytes())) {
+            log.warn("离线消息过大 {} 字节 已丢弃", frame.readableBytes());
+            return ImmediateEventExecutor.INSTANCE.newSucceededFuture(false);
+        }
+        // 调用者会释放 frame 先拷贝到堆上 再交给分片线程写盘
+        byte[] bytes = ByteBufUtil.getBytes(frame);
+        return shard.executor.submit(() -> shard.append(username, bytes));
+    }
+
+    @Override
+    public void drain(String username, Channel channel) {
+        Shard shard = shardOf(username);
+        shard.executor.execute(() -> shard.drain(username, channel));
+    }
+
+    private Shard shardOf(String username) {
+        return shards[(username.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private static long position(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segmentOf(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offsetOf(long position) {
+        return (int) position;
+    }
+
+    /**
+     * 一个分片 所有字段只能在 executor 线程上访问
+     */
+    private static final class Shard {
+        private final int id;
+        private final File dir;
+        private final int segmentBytes;
+        private final EventExecutor executor;
+        private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+        // 用户名 -> 按追加顺序排列的未投递记录位置
+        private final Map<String, ArrayDeque<Long>> index = new HashMap<>();
+        // 正在投递的用户 重复登录时只需要换一个目标 channel
+        private final Map<String, Drainer> drainers = new HashMap<>();
+        private Segment active;
+
+        private Shard(int id, File dir, int segmentBytes, EventExecutor executor) {
+            this.id = id;
+            this.dir = dir;
+            this.segmentBytes = segmentBytes;
+            this.executor = executor;
+        }
+
+        private void recover() throws IOException {
+            String prefix = "offline-" + id + "-";
+            File[] files = dir.listFiles((d, name) -> name.startsWith(prefix) && name.endsWith(".seg"));
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    int seq = Integer.parseInt(name.substring(prefix.length(), name.length() - 4));
+                    segments.put(seq, new Segment(seq, file, segmentBytes));
+                }
+            }
+            for (Segment segment : segments.values()) {
+                segment.scan((offset, username) ->
+                        index.computeIfAbsent(username, key -> new ArrayDeque<>()).add(position(segment.seq, offset)));
+            }
+            active = segments.isEmpty() ? newSegment(0) : segments.lastEntry().getValue();
+            log.debug("离线信箱分片 {} 恢复了 {} 个段 {} 个用户", id, segments.size(), index.size());
+        }
+
+        private Segment newSegment(int seq) throws IOException {
+            Segment segment = new Segment(seq, new File(dir, "offline-" + id + "-" + seq + ".seg"), segmentBytes);
+            segments.put(seq, segment);
+            return segment;
+        }
+
+        /**
+         * 记录能否放进一个段 用户名长度以有符号 short 保存 段尾至少留 4 字节的 0 作为结束标记
+         * 只读取不变的字段 可以在任何线程调用
+         */
+        private boolean fits(String username, int frameLength) {
+            int nameLength = username.getBytes(StandardCharsets.UTF_8).length;
+            return nameLength <= Short.MAX_VALUE && RECORD_HEADER_LENGTH + nameLength + frameLength + 4 <= segmentBytes;
+        }
+
+        private boolean append(String username, byte[] frame) {
+            try {
+                long position = appendRecord(username, frame, 0, frame.length);
+                if (position < 0) {
+                    return false;
+                }
+                index.computeIfAbsent(username, key -> new ArrayDeque<>()).add(position);
+                return true;
+            } catch (IOException e) {
+                log.error("离线消息写入失败", e);
+                return false;
+            }
+        }
+
+        private long appendRecord(String username, byte[] frame, int offset, int length) throws IOException {
+            if (!fits(username, length)) {
+                log.warn("离线消息过大 {} 字节 已丢弃", length);
+                return -1;
+            }
+            byte[] name = username.getBytes(StandardCharsets.UTF_8);
+            int recordLength = RECORD_HEADER_LENGTH + name.length + length;
+            if (active.writePosition + recordLength + 4 > segmentBytes) {
+                active = newSegment(active.seq + 1);
+            }
+            return position(active.seq, active.append(name, frame, offset, length));
+        }
+
+        private void drain(String username, Channel channel) {
+            Drainer drainer = drainers.get(username);
+            if (drainer != null) {
+                drainer.channel = channel;
+                return;
+            }
+            if (!index.containsKey(username)) {
+                return;
+            }
+            drainer = new Drainer(username, channel);
+            drainers.put(username, drainer);
+            drainer.next();
+        }
+
+        /**
+         * 定时维护 刷盘并回收已经投递完的段
+         */
+        private void maintain() {
+            try {
+                // 搬迁记录可能创建新段 遍历副本
+                for (Segment segment : new ArrayList<>(segments.values())) {
+                    segment.force();
+                    if (segment == active || segment.inFlight > 0) {
+                        continue;
+                    }
+                    if (segment.liveRecords == 0) {
+                        segments.remove(segment.seq);
+                        segment.delete();
+                    } else if (segment.liveBytes * COMPACT_RATIO < segmentBytes) {
+                        relocate(segment);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("离线信箱维护失败", e);
+            }
+        }
+
+        /**
+         * 把段中未投递的记录搬到活动段 之后这个段的记录全部标记为已投递 下一轮维护时删除
+         */
+        private void relocate(Segment segment) throws IOException {
+            List<long[]> moves = new ArrayList<>();
+            List<String> owners = new ArrayList<>();
+            segment.scan((offset, username) -> {
+                ByteBuffer frame = segment.frame(offset);
+                byte[] bytes = new byte[frame.remaining()];
+                frame.get(bytes);
+                try {
+                    long to = appendRecord(username, bytes, 0, bytes.length);
+                    moves.add(new long[]{position(segment.seq, offset), to});
+                    owners.add(username);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            for (int i = 0; i < moves.size(); i++) {
+                long from = moves.get(i)[0];
+                long to = moves.get(i)[1];
+                ArrayDeque<Long> positions = index.get(owners.get(i));
+                if (positions != null) {
+                    ArrayDeque<Long> replaced = new ArrayDeque<>(positions.size());
+                    for (Long position : positions) {
+                        replaced.add(position == from ? to : position);
+                    }
+                    index.put(owners.get(i), replaced);
+                }
+                segment.markDelivered(offsetOf(from));
+            }
+        }
+
+        /**
+         * 一个用户的投递过程 每次只有一批在途 这一批写完(真正交给 socket)后才发下一批
+         * channel 不可写时不发新的一批 稍后再检查 避免整批积压在背压队列里
+         * 批量写出用不可丢弃的 promise 背压策略不会丢弃或转存它们
+         */
+        private final class Drainer {
+            private final String username;
+            private Channel channel;
+            private List<Long> batch;
+
+            private Drainer(String username, Channel channel) {
+                this.username = username;
+                this.channel = channel;
+            }
+
+            private void next() {
+                ArrayDeque<Long> positions = index.get(username);
+                if (positions == null || !channel.isActive()) {
+                    drainers.remove(username);
+                    return;
+                }
+                Channel target = channel;
+                if (!target.isWritable()) {
+                    executor.schedule(this::next, DRAIN_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                batch = new ArrayList<>();
+                ByteBuf out = target.alloc().buffer(DRAIN_BATCH_BYTES);
+                while (!positions.isEmpty()) {
+                    long position = positions.peek();
+                    Segment segment = segments.get(segmentOf(position));
+                    ByteBuffer frame = segment.frame(offsetOf(position));
+                    if (!batch.isEmpty() && out.readableBytes() + frame.remaining() > DRAIN_BATCH_BYTES) {
+                        break;
+                    }
+                    positions.poll();
+                    out.writeBytes(frame);
+                    segment.inFlight++;
+                    batch.add(position);
+                }
+                if (positions.isEmpty()) {
+                    index.remove(username);
+                }
+                target.writeAndFlush(out, BackpressureHandler.undroppablePromise(target))
+                        .addListener(future -> executor.execute(() -> done(future.isSuccess())));
+            }
+
+            private void done(boolean success) {
+                for (Long position : batch) {
+                    Segment segment = segments.get(segmentOf(position));
+                    segment.inFlight--;
+                    if (success) {
+                        segment.markDelivered(offsetOf(position));
+                    }
+                }
+                if (!success) {
+                    // 没有送达 放回队首 下次登录再投递
+                    ArrayDeque<Long> positions = index.computeIfAbsent(username, key -> new ArrayDeque<>());
+                    for (int i = batch.size() - 1; i >= 0; i--) {
+                        positions.addFirst(batch.get(i));
+                    }
+                }
+                batch = null;
+                if (!success && channel.isActive()) {
+                    // 连接还在却没有送达 立即重试只会空转 等一会儿再投递
+                    executor.schedule(this::next, DRAIN_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                } else {
+                    next();
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(int offset, String username);
+    }
+
+    private static final class Segment {
+        private final int seq;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private int liveRecords;
+        private int liveBytes;
+        private int inFlight;
+        private boolean dirty;
+
+        private Segment(int seq, File file, int size) throws IOException {
+            this.seq = seq;
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                 FileChannel channel = raf.getChannel()) {
+                // 映射建立后关闭文件不影响映射
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            // 找到已写数据的结尾 同时统计未投递的记录 长度越界的记录视为写到一半 从这里截断
+            int offset = 0;
+            int length;
+            while (offset + 4 <= size && (length = buffer.getInt(offset)) > 0) {
+                if (!isValidRecord(offset, length, size)) {
+                    log.warn("离线消息段 {} 在 {} 处的记录长度 {} 已损坏 之后的数据被丢弃", file, offset, length);
+                    buffer.putInt(offset, 0);
+                    break;
+                }
+                if (buffer.get(offset + DELIVERED_OFFSET) != DELIVERED) {
+                    liveRecords++;
+                    liveBytes += length;
+                }
+                offset += length;
+            }
+            writePosition = offset;
+        }
+
+        // 记录必须完整落在段内并且在段尾留出结束标记 用户名也必须在记录内
+        private boolean isValidRecord(int offset, int length, int size) {
+            if (length < RECORD_HEADER_LENGTH || length > size - 4 - offset) {
+                return false;
+            }
+            int nameLength = buffer.getShort(offset + 5);
+            return nameLength >= 0 && RECORD_HEADER_LENGTH + nameLength <= length;
+        }
+
+        private int append(byte[] name, byte[] frame, int frameOffset, int frameLength) {
+            int offset = writePosition;
+            int length = RECORD_HEADER_LENGTH + name.length + frameLength;
+            buffer.put(offset + DELIVERED_OFFSET, (byte) 0);
+            buffer.putShort(offset + 5, (short) name.length);
+            ByteBuffer target = buffer.duplicate();
+            target.position(offset + RECORD_HEADER_LENGTH);
+            target.put(name);
+            target.put(frame, frameOffset, frameLength);
+            // 先写结束标记 最后写本记录的长度
+            buffer.putInt(offset + length, 0);
+            buffer.putInt(offset, length);
+            writePosition = offset + length;
+            liveRecords++;
+            liveBytes += length;
+            dirty = true;
+            return offset;
+        }
+
+        private void scan(RecordVisitor visitor) {
+            int offset = 0;
+            while (offset < writePosition) {
+                int length = buffer.getInt(offset);
+                if (buffer.get(offset + DELIVERED_OFFSET) != DELIVERED) {
+                    visitor.visit(offset, username(offset));
+                }
+                offset += length;
+            }
+        }
+
+        private String username(int offset) {
+            byte[] name = new byte[buffer.getShort(offset + 5)];
+            ByteBuffer source = buffer.duplicate();
+            source.position(offset + RECORD_HEADER_LENGTH);
+            source.get(name);
+            return new String(name, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return 只包含该记录中帧的视图
+         */
+        private ByteBuffer frame(int offset) {
+            int length = buffer.getInt(offset);
+            int start = offset + RECORD_HEADER_LENGTH + buffer.getShort(offset + 5);
+            ByteBuffer frame = buffer.duplicate();
+            frame.position(start);
+            frame.limit(offset + length);
+            return frame;
+        }
+
+        private void markDelivered(int offset) {
+            if (buffer.get(offset + DELIVERED_OFFSET) != DELIVERED) {
+                buffer.put(offset + DELIVERED_OFFSET, DELIVERED);
+                liveRecords--;
+                liveBytes -= buffer.getInt(offset);
+                dirty = true;
+            }
+        }
+
+        private void force() {
+            if (dirty) {
+                buffer.force();
+                dirty = false;
+            }
+        }
+
+        private void delete() {
+            PlatformDependent.freeDirectBuffer(buffer);
+            if (!file.delete()) {
+                log.warn("删除离线消息段 {} 失败", file);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package cn.server.offline;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+/**
+ * 离线消息存储 保存暂时无法投递给用户的已编码帧 用户下次登录时再投递
+ */
+public interface OfflineStore {
+
+    /**
+     * 不保存任何消息的实现
+     */
+    OfflineStore NONE = (username, frame) -> ImmediateEventExecutor.INSTANCE.newSucceededFuture(false);
+
+    /**
+     * 保存一帧 本方法不接管 frame 的引用 返回前已经拷贝 调用者可以立即释放
+     * @param username 接收方用户名
+     * @param frame 编码好的完整帧
+     * @return 写盘结束后完成 结果为是否保存成功
+     */
+    Future<Boolean> store(String username, ByteBuf frame);
+
+    /**
+     * 把用户的离线消息投递到刚登录的 channel 投递成功的消息不会再次投递
+     * @param username 用户名
+     * @param channel 用户登录的 channel
+     */
+    default void drain(String username, Channel channel) {
+    }
+}
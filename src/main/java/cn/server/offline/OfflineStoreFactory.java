@@ -0,0 +1,13 @@
+package cn.server.offline;
+
+import cn.config.Config;
+
+public abstract class OfflineStoreFactory {
+
+    // 没有开启 offline.enabled 时不保存离线消息
+    private static OfflineStore offlineStore = Config.isOfflineEnabled() ? new MmapOfflineStore() : OfflineStore.NONE;
+
+    public static OfflineStore getOfflineStore() {
+        return offlineStore;
+    }
+}
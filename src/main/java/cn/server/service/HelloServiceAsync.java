@@ -0,0 +1,11 @@
+package cn.server.service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HelloService 的异步视图 客户端通过 RpcClientManager.getAsyncProxyService 使用
+ * 方法名和参数与 HelloService 一一对应 返回值包装成 CompletableFuture
+ */
+public interface HelloServiceAsync {
+    CompletableFuture<String> sayHello(String name);
+}
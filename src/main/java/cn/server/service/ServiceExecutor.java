@@ -0,0 +1,103 @@
+package cn.server.service;
+
+import cn.config.Config;
+import cn.metrics.Histogram;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 执行服务方法的有界线程池 慢的业务方法只占用这里的线程 不会拖住 eventLoop 上的其他连接
+ * 排队加执行中的任务数超过上限时直接拒绝 由调用方返回过载响应
+ */
+@Slf4j
+public class ServiceExecutor {
+
+    private final String name;
+    private final ExecutorService executor;
+    // 允许同时存在的任务数 包括排队和执行中的
+    private final int limit;
+    // 已提交还没结束的任务数 提交时加一 执行结束时减一 限流只看它
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // 执行中的任务数 只用于统计 排队数由 inFlight 减去它得到
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final Histogram executionMicros = new Histogram();
+
+    private ServiceExecutor(String name, ExecutorService executor, int limit) {
+        this.name = name;
+        this.executor = executor;
+        this.limit = limit;
+    }
+
+    /**
+     * 按配置创建 开启虚拟线程且 JDK 支持时每个任务一个虚拟线程 只限制同时存在的任务数
+     * @param name 执行器名字 共享时为 shared 否则为服务接口名
+     */
+    public static ServiceExecutor create(String name) {
+        int threads = Config.getRpcExecutorThreads(name);
+        int queueSize = Config.getRpcExecutorQueueSize(name);
+        if (Config.isRpcExecutorVirtual()) {
+            ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+            if (virtual != null) {
+                return new ServiceExecutor(name, virtual, queueSize);
+            }
+            log.warn("当前 JDK 不支持虚拟线程 {} 改用普通线程池", name);
+        }
+        // 线程池自身的队列不设上限 数量由 limit 控制
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new DefaultThreadFactory("rpc-" + name, true));
+        return new ServiceExecutor(name, pool, threads + queueSize);
+    }
+
+    // JDK 21 起才有 通过反射调用 低版本 JDK 也能编译运行
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 提交任务
+     * @return 超过上限被拒绝时返回 false
+     */
+    public boolean tryExecute(Runnable task) {
+        if (inFlight.incrementAndGet() > limit) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                running.incrementAndGet();
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    executionMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                    running.decrementAndGet();
+                    inFlight.decrementAndGet();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+    }
+
+    public String report() {
+        int running = this.running.get();
+        return String.format("%s queue %d, running %d, rejected %d, execution p50 %d us p99 %d us",
+                name, Math.max(0, inFlight.get() - running), running, rejected.sum(),
+                executionMicros.percentile(50), executionMicros.percentile(99));
+    }
+}
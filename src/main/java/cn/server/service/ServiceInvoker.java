@@ -0,0 +1,121 @@
+package cn.server.service;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个服务接口所有方法的调用句柄 启动时解析一次 调用时不再 Class.forName、getMethod 和反射调用
+ * 句柄已经绑定了服务实例 并统一成 (Object[]) -> Object 的形状
+ */
+public class ServiceInvoker {
+
+    private final Class<?> interfaceClass;
+    // 执行这个服务方法的线程池 可能与其他服务共享
+    private final ServiceExecutor executor;
+    // 方法名 -> 同名的重载 重载一般很少 线性比较参数类型即可
+    private final Map<String, MethodInvoker[]> methods = new HashMap<>();
+
+    public ServiceInvoker(Class<?> interfaceClass, Object service, ServiceExecutor executor) throws IllegalAccessException {
+        this.interfaceClass = interfaceClass;
+        this.executor = executor;
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        for (Method method : interfaceClass.getMethods()) {
+            MethodHandle handle = lookup.unreflect(method)
+                    .bindTo(service)
+                    .asSpreader(Object[].class, method.getParameterCount())
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            MethodInvoker invoker = new MethodInvoker(signature(interfaceClass.getName(), method), method, handle, executor);
+            methods.merge(method.getName(), new MethodInvoker[]{invoker}, (a, b) -> {
+                MethodInvoker[] merged = Arrays.copyOf(a, a.length + 1);
+                merged[a.length] = b[0];
+                return merged;
+            });
+        }
+    }
+
+    public Class<?> getInterfaceClass() {
+        return interfaceClass;
+    }
+
+    public ServiceExecutor getExecutor() {
+        return executor;
+    }
+
+    public List<MethodInvoker> getMethods() {
+        List<MethodInvoker> all = new ArrayList<>();
+        methods.values().forEach(overloads -> all.addAll(Arrays.asList(overloads)));
+        return all;
+    }
+
+    /**
+     * 方法签名 握手交换方法表时客户端和服务端用它对应同一个方法
+     * @return 接口全限定名#方法名(参数类型,...)
+     */
+    public static String signature(String interfaceName, Method method) {
+        StringBuilder signature = new StringBuilder(interfaceName).append('#').append(method.getName()).append('(');
+        Class<?>[] types = method.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            signature.append(i == 0 ? "" : ",").append(types[i].getName());
+        }
+        return signature.append(')').toString();
+    }
+
+    /**
+     * @return 找不到对应的方法时返回 null
+     */
+    public MethodInvoker find(String methodName, Class<?>[] parameterTypes) {
+        MethodInvoker[] overloads = methods.get(methodName);
+        if (overloads == null) {
+            return null;
+        }
+        Class<?>[] types = parameterTypes == null ? new Class<?>[0] : parameterTypes;
+        for (MethodInvoker invoker : overloads) {
+            if (Arrays.equals(invoker.parameterTypes, types)) {
+                return invoker;
+            }
+        }
+        return null;
+    }
+
+    public static final class MethodInvoker {
+        private final String signature;
+        private final Method method;
+        private final Class<?>[] parameterTypes;
+        private final MethodHandle handle;
+        private final ServiceExecutor executor;
+
+        private MethodInvoker(String signature, Method method, MethodHandle handle, ServiceExecutor executor) {
+            this.signature = signature;
+            this.method = method;
+            this.parameterTypes = method.getParameterTypes();
+            this.handle = handle;
+            this.executor = executor;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        public Method getMethod() {
+            return method;
+        }
+
+        public ServiceExecutor getExecutor() {
+            return executor;
+        }
+
+        /**
+         * 调用服务方法 业务方法抛出的异常原样抛出 不会包装成 InvocationTargetException
+         */
+        public Object invoke(Object[] args) throws Throwable {
+            return (Object) handle.invokeExact(args == null ? new Object[0] : args);
+        }
+    }
+}
@@ -5,18 +5,31 @@ package cn.server.service;
 
 
 import cn.config.Config;
+import cn.metrics.MetricsReporter;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 public class ServicesFactory {
 
     static Properties properties;
     static Map<Class<?>, Object> map = new ConcurrentHashMap<>();
+    // 接口全限定名 -> 预先解析好的调用句柄
+    static Map<String, ServiceInvoker> invokers = new ConcurrentHashMap<>();
+    // 方法编号 -> 调用句柄 按签名排序 编号就是下标 握手时把签名列表发给客户端
+    static ServiceInvoker.MethodInvoker[] methodTable;
+    static List<String> methodSignatures;
+    // 没有开启每个服务独立线程池时 所有服务共用这一个
+    private static final ServiceExecutor SHARED_EXECUTOR = ServiceExecutor.create("shared");
 
     static {
         try (InputStream in = Config.class.getResourceAsStream("/application.properties")) {
@@ -27,15 +40,57 @@ public class ServicesFactory {
                 if (name.endsWith("Service")) {
                     Class<?> interfaceClass = Class.forName(name);
                     Class<?> instanceClass = Class.forName(properties.getProperty(name));
-                    map.put(interfaceClass, instanceClass.newInstance());
+                    Object service = instanceClass.newInstance();
+                    map.put(interfaceClass, service);
+                    ServiceExecutor executor = Config.isRpcExecutorPerService() ? ServiceExecutor.create(name) : SHARED_EXECUTOR;
+                    invokers.put(name, new ServiceInvoker(interfaceClass, service, executor));
                 }
             }
         } catch (IOException | ClassNotFoundException | InstantiationException | IllegalAccessException e) {
             throw new ExceptionInInitializerError(e);
         }
+        methodTable = invokers.values().stream()
+                .flatMap(invoker -> invoker.getMethods().stream())
+                .sorted(Comparator.comparing(ServiceInvoker.MethodInvoker::getSignature))
+                .toArray(ServiceInvoker.MethodInvoker[]::new);
+        methodSignatures = Collections.unmodifiableList(Arrays.stream(methodTable)
+                .map(ServiceInvoker.MethodInvoker::getSignature).collect(Collectors.toList()));
+        MetricsReporter.register("rpc", ServicesFactory::report);
+    }
+
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        invokers.values().stream().map(ServiceInvoker::getExecutor).distinct()
+                .forEach(executor -> report.append(report.length() == 0 ? "" : "; ").append(executor.report()));
+        return report.toString();
     }
 
     public static <T> T getService(Class<T> interfaceClass) {
         return (T) map.get(interfaceClass);
     }
+
+    /**
+     * 找到某个服务方法的调用句柄
+     * @param interfaceName 接口全限定名
+     * @param methodName 方法名
+     * @param parameterTypes 参数类型
+     * @return 服务或者方法不存在时返回 null
+     */
+    public static ServiceInvoker.MethodInvoker getInvoker(String interfaceName, String methodName, Class<?>[] parameterTypes) {
+        ServiceInvoker invoker = invokers.get(interfaceName);
+        return invoker == null ? null : invoker.find(methodName, parameterTypes);
+    }
+
+    /**
+     * 按握手时分配的编号找到调用句柄
+     * @return 编号越界时返回 null
+     */
+    public static ServiceInvoker.MethodInvoker getInvoker(int methodId) {
+        ServiceInvoker.MethodInvoker[] table = methodTable;
+        return methodId >= 0 && methodId < table.length ? table[methodId] : null;
+    }
+
+    public static List<String> getMethodSignatures() {
+        return methodSignatures;
+    }
 }
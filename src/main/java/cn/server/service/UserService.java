@@ -12,4 +12,11 @@ public interface UserService {
      * @return 登录成功返回 true, 否则返回 false
      */
     boolean login(String username, String password);
+
+    /**
+     * 用户是否存在
+     * @param username 用户名
+     * @return 存在返回 true
+     */
+    boolean exists(String username);
 }
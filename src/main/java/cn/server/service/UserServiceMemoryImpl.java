@@ -4,22 +4,28 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class UserServiceMemoryImpl implements UserService {
+    // 用户名 -> 加盐哈希后的密码 不保存明文
     private Map<String, String> allUserMap = new ConcurrentHashMap<>();
 
     {
-        allUserMap.put("zhangsan", "123");
-        allUserMap.put("lisi", "123");
-        allUserMap.put("wangwu", "123");
-        allUserMap.put("zhaoliu", "123");
-        allUserMap.put("qianqi", "123");
+        allUserMap.put("zhangsan", PasswordHasher.hash("123"));
+        allUserMap.put("lisi", PasswordHasher.hash("123"));
+        allUserMap.put("wangwu", PasswordHasher.hash("123"));
+        allUserMap.put("zhaoliu", PasswordHasher.hash("123"));
+        allUserMap.put("qianqi", PasswordHasher.hash("123"));
     }
 
     @Override
     public boolean login(String username, String password) {
-        String pass = allUserMap.get(username);
-        if (pass == null) {
+        String hash = allUserMap.get(username);
+        if (hash == null || password == null) {
             return false;
         }
-        return pass.equals(password);
+        return PasswordHasher.verify(password, hash);
+    }
+
+    @Override
+    public boolean exists(String username) {
+        return allUserMap.containsKey(username);
     }
 }
@@ -1,24 +1,95 @@
 package cn.server.session;
 
-import lombok.Data;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import lombok.Getter;
 
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
-@Data
+@Getter
 /**
  * 聊天组，即聊天室
+ * 成员是不可变的快照 修改时复制一份新快照再原子替换 读取方无需加锁 总能拿到一致的视图
  */
 public class Group {
     // 聊天室名称
-    private String name;
-    // 聊天室成员
-    private Set<String> members;
+    private final String name;
+    // 聊天室成员快照
+    private final AtomicReference<Members> snapshot;
+    // 在线成员的 channel 登录、下线、加入、退出时增量维护 连接关闭时 ChannelGroup 也会自动移除
+    private final ChannelGroup onlineChannels;
 
     public static final Group EMPTY_GROUP = new Group("empty", Collections.emptySet());
 
     public Group(String name, Set<String> members) {
         this.name = name;
-        this.members = members;
+        this.snapshot = new AtomicReference<>(new Members(new HashSet<>(members), 1));
+        this.onlineChannels = new DefaultChannelGroup(name, GlobalEventExecutor.INSTANCE);
+    }
+
+    // 聊天室成员
+    public Set<String> getMembers() {
+        return snapshot.get().getMembers();
+    }
+
+    public Members getMembersSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * 加入成员
+     * @return 成员原本不存在返回 true
+     */
+    public boolean addMember(String member) {
+        while (true) {
+            Members current = snapshot.get();
+            if (current.getMembers().contains(member)) {
+                return false;
+            }
+            Set<String> members = new HashSet<>(current.getMembers());
+            members.add(member);
+            if (snapshot.compareAndSet(current, new Members(members, current.getVersion() + 1))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 移除成员
+     * @return 成员原本存在返回 true
+     */
+    public boolean removeMember(String member) {
+        while (true) {
+            Members current = snapshot.get();
+            if (!current.getMembers().contains(member)) {
+                return false;
+            }
+            Set<String> members = new HashSet<>(current.getMembers());
+            members.remove(member);
+            if (snapshot.compareAndSet(current, new Members(members, current.getVersion() + 1))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 某一时刻的成员快照 创建后不再改变 每次修改版本号加一
+     */
+    @Getter
+    public static final class Members {
+        // 不存在的群 版本号为 0
+        public static final Members EMPTY = new Members(Collections.emptySet(), 0);
+
+        private final Set<String> members;
+        private final long version;
+
+        private Members(Set<String> members, long version) {
+            this.members = Collections.unmodifiableSet(members);
+            this.version = version;
+        }
     }
 }
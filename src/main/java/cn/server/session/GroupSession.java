@@ -1,8 +1,10 @@
 package cn.server.session;
 
 import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ImmediateEventExecutor;
 
-import java.util.List;
+import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -10,6 +12,16 @@ import java.util.Set;
  */
 public interface GroupSession {
 
+    /**
+     * 群所属的执行器 同一个群的操作提交到这里可以保证串行执行
+     * 默认实现是线程安全的 直接在调用线程执行
+     * @param name 组名
+     * @return 执行器
+     */
+    default EventExecutor executor(String name) {
+        return ImmediateEventExecutor.INSTANCE;
+    }
+
     /**
      * 创建一个聊天组, 如果不存在才能创建成功, 否则返回 null
      * @param name 组名
@@ -48,10 +60,32 @@ public interface GroupSession {
      */
     Set<String> getMembers(String name);
 
+    /**
+     * 获取组成员的不可变快照及其版本号
+     * @param name 组名
+     * @return 成员快照, 如果群不存在返回版本号为 0 的空快照
+     */
+    Group.Members getMembersSnapshot(String name);
+
     /**
      * 获取组成员的 channel 集合, 只有在线的 channel 才会返回
+     * 返回的是实时维护的集合本身 调用者只能遍历不能修改
      * @param name 组名
      * @return 成员 channel 集合
      */
-    List<Channel> getMembersChannel(String name);
+    Collection<Channel> getMembersChannel(String name);
+
+    /**
+     * 用户上线 把它的 channel 加入所在各群的在线集合
+     * @param username 用户名
+     * @param channel 登录的 channel
+     */
+    void online(String username, Channel channel);
+
+    /**
+     * 用户下线 把它的 channel 从所在各群的在线集合中移除
+     * @param username 用户名
+     * @param channel 断开的 channel
+     */
+    void offline(String username, Channel channel);
 }
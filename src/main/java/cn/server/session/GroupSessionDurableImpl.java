@@ -0,0 +1,435 @@
+package cn.server.session;
+
+import cn.config.Config;
+import cn.metrics.MetricsReporter;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+@Slf4j
+/**
+ * 持久化的聊天组会话 内存结构与 GroupSessionMemoryImpl 相同
+ * 每次成功的修改都追加到预写日志 由单独的线程批量写入 一批只 fsync 一次
+ * 日志累积到一定条数后生成一份紧凑的快照 启动时加载最新快照再重放之后的日志
+ * 调用方不等待落盘 崩溃时最多丢失最后一批尚未 fsync 的修改
+ */
+public class GroupSessionDurableImpl extends GroupSessionMemoryImpl {
+
+    private static final byte OP_CREATE = 1;
+    private static final byte OP_JOIN = 2;
+    private static final byte OP_REMOVE_MEMBER = 3;
+    private static final byte OP_REMOVE_GROUP = 4;
+    private static final int SNAPSHOT_MAGIC = 0x47534e50;
+
+    private static final LongAdder RECORDS = new LongAdder();
+    private static final LongAdder SYNCS = new LongAdder();
+    private static final LongAdder SNAPSHOTS = new LongAdder();
+
+    static {
+        MetricsReporter.register("groupWal", GroupSessionDurableImpl::report);
+    }
+
+    private final File dir;
+    private final int snapshotRecords;
+    // 修改内存结构和入队在同一把锁里 日志顺序与实际生效的顺序一致
+    private final Object lock = new Object();
+    // 元素是编码好的日志记录 byte[] 或者表示切换到新日志文件的代数 Long
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(
+            new DefaultThreadFactory("group-snapshot", true));
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    // 当前日志的代数 只在持有 lock 时修改
+    private long generation;
+    // 当前日志文件里的记录数 只有写线程访问
+    private long walRecords;
+    private FileChannel wal;
+    // 写线程当前日志的代数 以及最近一次 fsync 成功时的文件长度 写失败时截回这里
+    private long walGeneration;
+    private long walForced;
+
+    public GroupSessionDurableImpl() {
+        this(new File(Config.getGroupDataDir()), Config.getGroupSnapshotRecords());
+    }
+
+    public GroupSessionDurableImpl(File dir, int snapshotRecords) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("无法创建聊天组数据目录 " + dir);
+        }
+        this.dir = dir;
+        this.snapshotRecords = snapshotRecords;
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("聊天组数据恢复失败", e);
+        }
+        Thread writer = new DefaultThreadFactory("group-wal", true).newThread(this::writeLoop);
+        writer.start();
+    }
+
+    @Override
+    public Group createGroup(String name, Set<String> members) {
+        synchronized (lock) {
+            Group previous = super.createGroup(name, members);
+            if (previous == null) {
+                log(encode(OP_CREATE, name, members.toArray(new String[0])));
+            }
+            return previous;
+        }
+    }
+
+    @Override
+    public Group joinMember(String name, String member) {
+        synchronized (lock) {
+            Group group = groupMap.get(name);
+            if (group != null && !group.getMembers().contains(member)) {
+                log(encode(OP_JOIN, name, member));
+            }
+            return super.joinMember(name, member);
+        }
+    }
+
+    @Override
+    public Group removeMember(String name, String member) {
+        synchronized (lock) {
+            Group group = groupMap.get(name);
+            if (group != null && group.getMembers().contains(member)) {
+                log(encode(OP_REMOVE_MEMBER, name, member));
+            }
+            return super.removeMember(name, member);
+        }
+    }
+
+    @Override
+    public Group removeGroup(String name) {
+        synchronized (lock) {
+            Group group = super.removeGroup(name);
+            if (group != null) {
+                log(encode(OP_REMOVE_GROUP, name));
+            }
+            return group;
+        }
+    }
+
+    private void log(byte[] record) {
+        queue.add(record);
+    }
+
+    private static byte[] encode(byte op, String name, String... members) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(op);
+            out.writeUTF(name);
+            out.writeInt(members.length);
+            for (String member : members) {
+                out.writeUTF(member);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 组提交 取出队列里当前所有的记录一次写完再 fsync
+     */
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        CRC32 crc = new CRC32();
+        while (true) {
+            // batch 中已经落盘的前缀长度 切换日志时旧日志会先 fsync
+            int durable = 0;
+            try {
+                // 上一批失败时直接重试 不等待新的记录
+                if (batch.isEmpty()) {
+                    batch.add(queue.take());
+                }
+                queue.drainTo(batch);
+                buffer.clear();
+                int records = 0;
+                for (int i = 0; i < batch.size(); i++) {
+                    Object item = batch.get(i);
+                    if (item instanceof Long) {
+                        flush(buffer);
+                        rollTo((Long) item);
+                        durable = i + 1;
+                        RECORDS.add(records);
+                        records = 0;
+                        continue;
+                    }
+                    byte[] record = (byte[]) item;
+                    if (buffer.remaining() < record.length + 8) {
+                        flush(buffer);
+                        if (buffer.capacity() < record.length + 8) {
+                            buffer = ByteBuffer.allocate(record.length + 8);
+                        }
+                    }
+                    crc.reset();
+                    crc.update(record, 0, record.length);
+                    buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+                    records++;
+                }
+                flush(buffer);
+                wal.force(false);
+                walForced = wal.position();
+                walRecords += records;
+                RECORDS.add(records);
+                SYNCS.increment();
+                batch.clear();
+                if (walRecords >= snapshotRecords && snapshotting.compareAndSet(false, true)) {
+                    snapshotExecutor.execute(this::snapshot);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // 写失败时保留这一批中还没落盘的部分 把日志截回上次 fsync 的位置后重试 内存中的状态不受影响
+                log.error("聊天组日志写入失败", e);
+                batch.subList(0, durable).clear();
+                resetWal();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ignored) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            wal.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void rollTo(long next) throws IOException {
+        wal.force(false);
+        wal.close();
+        wal = openWal(next);
+        walGeneration = next;
+        walForced = wal.position();
+        walRecords = 0;
+    }
+
+    /**
+     * 丢弃日志中上次 fsync 之后写了一半的内容 文件已经关闭时重新打开
+     */
+    private void resetWal() {
+        try {
+            if (!wal.isOpen()) {
+                wal = openWal(walGeneration);
+            }
+            wal.truncate(walForced);
+            wal.position(walForced);
+        } catch (IOException e) {
+            log.error("聊天组日志恢复失败", e);
+        }
+    }
+
+    private FileChannel openWal(long gen) throws IOException {
+        FileChannel channel = new RandomAccessFile(file("wal", gen, ".log"), "rw").getChannel();
+        channel.position(channel.size());
+        return channel;
+    }
+
+    /**
+     * 在锁内切换日志代数并抓取所有群的成员快照引用 成员快照不可变 锁外可以慢慢写文件
+     * 之前的修改都在旧日志里且反映在抓到的状态中 之后的修改都写进新日志
+     */
+    private void snapshot() {
+        try {
+            long gen;
+            List<Group.Members> members;
+            List<String> names;
+            synchronized (lock) {
+                gen = ++generation;
+                queue.add(gen);
+                names = new ArrayList<>(groupMap.size());
+                members = new ArrayList<>(groupMap.size());
+                groupMap.forEach((name, group) -> {
+                    names.add(name);
+                    members.add(group.getMembersSnapshot());
+                });
+            }
+            File tmp = file("snapshot", gen, ".tmp");
+            try (FileOutputStream file = new FileOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(names.size());
+                for (int i = 0; i < names.size(); i++) {
+                    Set<String> set = members.get(i).getMembers();
+                    out.writeUTF(names.get(i));
+                    out.writeInt(set.size());
+                    for (String member : set) {
+                        out.writeUTF(member);
+                    }
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file("snapshot", gen, ".dat").toPath(), StandardCopyOption.ATOMIC_MOVE);
+            SNAPSHOTS.increment();
+            // 快照已经落盘 更早的快照和日志都不再需要
+            for (File old : listFiles()) {
+                if (generationOf(old) < gen) {
+                    Files.deleteIfExists(old.toPath());
+                }
+            }
+            log.debug("聊天组快照 {} 写入完成 共 {} 个群", gen, names.size());
+        } catch (IOException e) {
+            log.error("聊天组快照写入失败", e);
+        } finally {
+            snapshotting.set(false);
+        }
+    }
+
+    /**
+     * 加载最新的快照 再按顺序重放代数不小于它的日志 最后一个日志末尾不完整的记录会被截掉
+     */
+    private void recover() throws IOException {
+        long snapshotGen = -1;
+        List<File> wals = new ArrayList<>();
+        for (File file : listFiles()) {
+            if (file.getName().endsWith(".dat")) {
+                snapshotGen = Math.max(snapshotGen, generationOf(file));
+            } else if (file.getName().endsWith(".log")) {
+                wals.add(file);
+            } else if (file.getName().endsWith(".tmp")) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        if (snapshotGen >= 0) {
+            loadSnapshot(file("snapshot", snapshotGen, ".dat"));
+        }
+        generation = Math.max(snapshotGen, 0);
+        wals.sort(Comparator.comparingLong(GroupSessionDurableImpl::generationOf));
+        for (File file : wals) {
+            long gen = generationOf(file);
+            if (gen < snapshotGen) {
+                continue;
+            }
+            replay(file);
+            generation = gen;
+        }
+        wal = openWal(generation);
+        walGeneration = generation;
+        walForced = wal.position();
+        log.debug("聊天组恢复完成 快照 {} 当前日志 {} 共 {} 个群", snapshotGen, generation, groupMap.size());
+    }
+
+    private void loadSnapshot(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("不是聊天组快照文件 " + file);
+            }
+            int groups = in.readInt();
+            for (int i = 0; i < groups; i++) {
+                String name = in.readUTF();
+                int size = in.readInt();
+                Set<String> members = new HashSet<>(size * 4 / 3 + 1);
+                for (int j = 0; j < size; j++) {
+                    members.add(in.readUTF());
+                }
+                super.createGroup(name, members);
+            }
+        }
+    }
+
+    private void replay(File file) throws IOException {
+        long valid = 0;
+        long fileLength = file.length();
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            while (true) {
+                int length;
+                int checksum;
+                byte[] record;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    // 建群记录的成员数没有上限 只能用文件剩余的字节数约束 超出说明长度本身已损坏
+                    if (length <= 0 || length > fileLength - valid - 8) {
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                apply(record);
+                valid += 8 + length;
+            }
+        }
+        if (valid < fileLength) {
+            log.warn("聊天组日志 {} 末尾有 {} 字节不完整 已截断", file, fileLength - valid);
+            try (FileChannel channel = new RandomAccessFile(file, "rw").getChannel()) {
+                channel.truncate(valid);
+            }
+        }
+    }
+
+    // 重放时直接修改内存结构 不再写日志
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte op = in.readByte();
+        String name = in.readUTF();
+        String[] members = new String[in.readInt()];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = in.readUTF();
+        }
+        switch (op) {
+            case OP_CREATE:
+                super.createGroup(name, new HashSet<>(Arrays.asList(members)));
+                break;
+            case OP_JOIN:
+                super.joinMember(name, members[0]);
+                break;
+            case OP_REMOVE_MEMBER:
+                super.removeMember(name, members[0]);
+                break;
+            case OP_REMOVE_GROUP:
+                super.removeGroup(name);
+                break;
+            default:
+                throw new IOException("未知的聊天组日志操作 " + op);
+        }
+    }
+
+    private File file(String prefix, long gen, String suffix) {
+        return new File(dir, String.format("%s-%020d%s", prefix, gen, suffix));
+    }
+
+    private File[] listFiles() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith("wal-") || name.startsWith("snapshot-"));
+        return files == null ? new File[0] : files;
+    }
+
+    private static long generationOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.lastIndexOf('.')));
+    }
+
+    public static String report() {
+        return "records=" + RECORDS.sum() + " syncs=" + SYNCS.sum() + " snapshots=" + SNAPSHOTS.sum();
+    }
+}
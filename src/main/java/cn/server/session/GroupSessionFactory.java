@@ -1,8 +1,19 @@
 package cn.server.session;
 
+import cn.config.Config;
+
 public abstract class GroupSessionFactory {
 
-    private static GroupSession session = new GroupSessionMemoryImpl();
+    private static GroupSession session = createGroupSession();
+
+    // 具体实现由 application.properties 中的 group.session 决定
+    private static GroupSession createGroupSession() {
+        try {
+            return (GroupSession) Class.forName(Config.getGroupSessionClass()).newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     public static GroupSession getGroupSession() {
         return session;
@@ -2,41 +2,51 @@ package cn.server.session;
 
 import io.netty.channel.Channel;
 
-import java.util.List;
+import java.util.Collection;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 public class GroupSessionMemoryImpl implements GroupSession {
-    private final Map<String, Group> groupMap = new ConcurrentHashMap<>();
+    protected final Map<String, Group> groupMap = new ConcurrentHashMap<>();
+    // 反向索引 用户名 -> 所在的群 上下线时只需要更新这些群
+    private final Map<String, Set<Group>> userGroupsMap = new ConcurrentHashMap<>();
 
     @Override
     public Group createGroup(String name, Set<String> members) {
         Group group = new Group(name, members);
-        return groupMap.putIfAbsent(name, group);
+        Group previous = groupMap.putIfAbsent(name, group);
+        if (previous == null) {
+            group.getMembers().forEach(member -> indexMember(group, member));
+        }
+        return previous;
     }
 
     @Override
     public Group joinMember(String name, String member) {
-        return groupMap.computeIfPresent(name, (key, value) -> {
-            value.getMembers().add(member);
-            return value;
-        });
+        Group group = groupMap.get(name);
+        if (group != null && group.addMember(member)) {
+            indexMember(group, member);
+        }
+        return group;
     }
 
     @Override
     public Group removeMember(String name, String member) {
-        return groupMap.computeIfPresent(name, (key, value) -> {
-            value.getMembers().remove(member);
-            return value;
-        });
+        Group group = groupMap.get(name);
+        if (group != null && group.removeMember(member)) {
+            unindexMember(group, member);
+        }
+        return group;
     }
 
     @Override
     public Group removeGroup(String name) {
-        return groupMap.remove(name);
+        Group group = groupMap.remove(name);
+        if (group != null) {
+            group.getMembers().forEach(member -> unindexMember(group, member));
+        }
+        return group;
     }
 
     @Override
@@ -45,10 +55,56 @@ public class GroupSessionMemoryImpl implements GroupSession {
     }
 
     @Override
-    public List<Channel> getMembersChannel(String name) {
-        return getMembers(name).stream()
-                .map(member -> SessionFactory.getSession().getChannel(member))
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+    public Group.Members getMembersSnapshot(String name) {
+        Group group = groupMap.get(name);
+        return group == null ? Group.Members.EMPTY : group.getMembersSnapshot();
+    }
+
+    @Override
+    public Collection<Channel> getMembersChannel(String name) {
+        return groupMap.getOrDefault(name, Group.EMPTY_GROUP).getOnlineChannels();
+    }
+
+    @Override
+    public void online(String username, Channel channel) {
+        Set<Group> groups = userGroupsMap.get(username);
+        if (groups != null) {
+            groups.forEach(group -> group.getOnlineChannels().add(channel));
+        }
+    }
+
+    @Override
+    public void offline(String username, Channel channel) {
+        Set<Group> groups = userGroupsMap.get(username);
+        if (groups != null) {
+            groups.forEach(group -> group.getOnlineChannels().remove(channel));
+        }
+    }
+
+    // 先登记反向索引再查在线状态 与 online 的顺序相反 并发时至少有一方能看到对方 不会漏掉在线成员
+    private void indexMember(Group group, String member) {
+        // 添加和删除都在 compute 里完成 避免刚取到的集合被并发的 unindexMember 移出索引
+        userGroupsMap.compute(member, (key, groups) -> {
+            if (groups == null) {
+                groups = ConcurrentHashMap.newKeySet();
+            }
+            groups.add(group);
+            return groups;
+        });
+        Channel channel = SessionFactory.getSession().getChannel(member);
+        if (channel != null) {
+            group.getOnlineChannels().add(channel);
+        }
+    }
+
+    private void unindexMember(Group group, String member) {
+        userGroupsMap.computeIfPresent(member, (key, groups) -> {
+            groups.remove(group);
+            return groups.isEmpty() ? null : groups;
+        });
+        Channel channel = SessionFactory.getSession().getChannel(member);
+        if (channel != null) {
+            group.getOnlineChannels().remove(channel);
+        }
     }
 }
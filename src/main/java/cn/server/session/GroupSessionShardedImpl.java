@@ -0,0 +1,176 @@
+package cn.server.session;
+
+import cn.config.Config;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 按群名分片的聊天组会话 每个群固定属于一个单线程的 EventExecutor
+ * 同一个群的创建、加入、退出、群聊都在它的所属线程上串行执行 分片内部的数据结构不需要加锁
+ * 处理器应当通过 executor(name) 把整段业务逻辑提交到所属线程 结果再异步写回调用方的 channel
+ * 在其他线程调用时会提交到所属线程并等待结果 保证正确但失去了分片的意义
+ */
+public class GroupSessionShardedImpl implements GroupSession {
+
+    private final Shard[] shards;
+
+    public GroupSessionShardedImpl() {
+        this(Config.getGroupShards());
+    }
+
+    public GroupSessionShardedImpl(int shardCount) {
+        DefaultEventExecutorGroup executors = new DefaultEventExecutorGroup(shardCount,
+                new DefaultThreadFactory("group-shard", true));
+        shards = new Shard[shardCount];
+        int i = 0;
+        for (EventExecutor executor : executors) {
+            shards[i++] = new Shard(executor);
+        }
+    }
+
+    @Override
+    public EventExecutor executor(String name) {
+        return shardOf(name).executor;
+    }
+
+    @Override
+    public Group createGroup(String name, Set<String> members) {
+        return onOwner(name, shard -> {
+            Group previous = shard.groupMap.get(name);
+            if (previous == null) {
+                Group group = new Group(name, members);
+                shard.groupMap.put(name, group);
+                group.getMembers().forEach(member -> shard.indexMember(group, member));
+            }
+            return previous;
+        });
+    }
+
+    @Override
+    public Group joinMember(String name, String member) {
+        return onOwner(name, shard -> {
+            Group group = shard.groupMap.get(name);
+            if (group != null && group.addMember(member)) {
+                shard.indexMember(group, member);
+            }
+            return group;
+        });
+    }
+
+    @Override
+    public Group removeMember(String name, String member) {
+        return onOwner(name, shard -> {
+            Group group = shard.groupMap.get(name);
+            if (group != null && group.removeMember(member)) {
+                shard.unindexMember(group, member);
+            }
+            return group;
+        });
+    }
+
+    @Override
+    public Group removeGroup(String name) {
+        return onOwner(name, shard -> {
+            Group group = shard.groupMap.remove(name);
+            if (group != null) {
+                group.getMembers().forEach(member -> shard.unindexMember(group, member));
+            }
+            return group;
+        });
+    }
+
+    @Override
+    public Set<String> getMembers(String name) {
+        return onOwner(name, shard -> shard.groupMap.getOrDefault(name, Group.EMPTY_GROUP).getMembers());
+    }
+
+    @Override
+    public Group.Members getMembersSnapshot(String name) {
+        return onOwner(name, shard -> {
+            Group group = shard.groupMap.get(name);
+            return group == null ? Group.Members.EMPTY : group.getMembersSnapshot();
+        });
+    }
+
+    @Override
+    public Collection<Channel> getMembersChannel(String name) {
+        return onOwner(name, shard -> shard.groupMap.getOrDefault(name, Group.EMPTY_GROUP).getOnlineChannels());
+    }
+
+    @Override
+    public void online(String username, Channel channel) {
+        // 用户所在的群可能分布在任何分片 每个分片各自更新 不等待结果
+        for (Shard shard : shards) {
+            shard.executor.execute(() -> shard.forEachGroup(username, group -> group.getOnlineChannels().add(channel)));
+        }
+    }
+
+    @Override
+    public void offline(String username, Channel channel) {
+        for (Shard shard : shards) {
+            shard.executor.execute(() -> shard.forEachGroup(username, group -> group.getOnlineChannels().remove(channel)));
+        }
+    }
+
+    private Shard shardOf(String name) {
+        return shards[(name.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private <T> T onOwner(String name, Function<Shard, T> operation) {
+        Shard shard = shardOf(name);
+        if (shard.executor.inEventLoop()) {
+            return operation.apply(shard);
+        }
+        return shard.executor.submit(() -> operation.apply(shard)).syncUninterruptibly().getNow();
+    }
+
+    /**
+     * 一个分片 所有字段只能在 executor 线程上访问
+     */
+    private static final class Shard {
+        private final EventExecutor executor;
+        private final Map<String, Group> groupMap = new HashMap<>();
+        // 反向索引 用户名 -> 本分片中所在的群
+        private final Map<String, Set<Group>> userGroupsMap = new HashMap<>();
+
+        private Shard(EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        private void indexMember(Group group, String member) {
+            userGroupsMap.computeIfAbsent(member, key -> new HashSet<>()).add(group);
+            Channel channel = SessionFactory.getSession().getChannel(member);
+            if (channel != null) {
+                group.getOnlineChannels().add(channel);
+            }
+        }
+
+        private void unindexMember(Group group, String member) {
+            Set<Group> groups = userGroupsMap.get(member);
+            if (groups != null && groups.remove(group) && groups.isEmpty()) {
+                userGroupsMap.remove(member);
+            }
+            Channel channel = SessionFactory.getSession().getChannel(member);
+            if (channel != null) {
+                group.getOnlineChannels().remove(channel);
+            }
+        }
+
+        private void forEachGroup(String username, Consumer<Group> action) {
+            Set<Group> groups = userGroupsMap.get(username);
+            if (groups != null) {
+                groups.forEach(action);
+            }
+        }
+    }
+}
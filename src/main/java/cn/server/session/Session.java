@@ -43,4 +43,11 @@ public interface Session {
      * @return channel
      */
     Channel getChannel(String username);
+
+    /**
+     * 获取 channel 绑定的用户名
+     * @param channel 哪个 channel
+     * @return 用户名, 没有登录时返回 null
+     */
+    String getUsername(Channel channel);
 }
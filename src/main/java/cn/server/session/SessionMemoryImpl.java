@@ -1,40 +1,66 @@
 package cn.server.session;
 
 import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 import lombok.Data;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 用户名和会话属性直接保存在 channel 的 attribute 上 随 channel 一起回收
+ * 全局只保留 用户名 -> channel 的索引
+ */
 @Data
 public class SessionMemoryImpl implements Session {
 
+    private static final AttributeKey<String> USERNAME = AttributeKey.valueOf("session.username");
+    private static final AttributeKey<Map<String, Object>> ATTRIBUTES = AttributeKey.valueOf("session.attributes");
+
     private final Map<String, Channel> usernameChannelMap = new ConcurrentHashMap<>();
-    private final Map<Channel, String> channelUsernameMap = new ConcurrentHashMap<>();
-    private final Map<Channel,Map<String,Object>> channelAttributesMap = new ConcurrentHashMap<>();
 
     @Override
     public void bind(Channel channel, String username) {
+        String previous = channel.attr(USERNAME).getAndSet(username);
+        // 同一个连接换了账号登录 旧账号的索引只在仍然指向本连接时才移除
+        if (previous != null && !previous.equals(username)) {
+            usernameChannelMap.remove(previous, channel);
+        }
+        // 同一账号在新连接上登录 直接覆盖 旧连接之后 unbind 时不会误删新连接
         usernameChannelMap.put(username, channel);
-        channelUsernameMap.put(channel, username);
-        channelAttributesMap.put(channel, new ConcurrentHashMap<>());
     }
 
     @Override
     public void unbind(Channel channel) {
-        String username = channelUsernameMap.remove(channel);
-        usernameChannelMap.remove(username);
-        channelAttributesMap.remove(channel);
+        // 未登录的连接没有用户名 什么也不用做
+        String username = channel.attr(USERNAME).getAndSet(null);
+        if (username != null) {
+            // 只有索引仍指向本连接才移除 避免把重新登录的新连接踢掉
+            usernameChannelMap.remove(username, channel);
+        }
+        channel.attr(ATTRIBUTES).set(null);
     }
 
     @Override
     public Object getAttribute(Channel channel, String name) {
-        return channelAttributesMap.get(channel).get(name);
+        Map<String, Object> attributes = channel.attr(ATTRIBUTES).get();
+        return attributes == null ? null : attributes.get(name);
     }
 
     @Override
     public void setAttribute(Channel channel, String name, Object value) {
-        channelAttributesMap.get(channel).put(name, value);
+        // 大多数连接用不到会话属性 第一次设置时才创建
+        Attribute<Map<String, Object>> attr = channel.attr(ATTRIBUTES);
+        Map<String, Object> attributes = attr.get();
+        if (attributes == null) {
+            Map<String, Object> created = new ConcurrentHashMap<>(4);
+            attributes = attr.setIfAbsent(created);
+            if (attributes == null) {
+                attributes = created;
+            }
+        }
+        attributes.put(name, value);
     }
 
     @Override
@@ -42,6 +68,11 @@ public class SessionMemoryImpl implements Session {
         return usernameChannelMap.get(username);
     }
 
+    @Override
+    public String getUsername(Channel channel) {
+        return channel.attr(USERNAME).get();
+    }
+
     @Override
     public String toString() {
         return usernameChannelMap.toString();
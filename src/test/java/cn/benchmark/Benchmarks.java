@@ -0,0 +1,46 @@
+package cn.benchmark;
+
+/**
+ * 基准测试用的计时工具 先预热再计时 让 JIT 编译完成后再取数
+ * 基准测试类以 Benchmark 结尾 不会被 surefire 当作单元测试运行
+ * 运行方式: mvn -B test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=类名
+ */
+public abstract class Benchmarks {
+
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    private static final long WARMUP_MILLIS = Long.getLong("benchmark.warmup", 1000);
+    private static final long MEASURE_MILLIS = Long.getLong("benchmark.measure", 2000);
+
+    // 防止 JIT 把结果没有被使用的调用消除
+    private static volatile Object sink;
+
+    public static void consume(Object value) {
+        sink = value;
+    }
+
+    /**
+     * @return 每次操作平均耗时 纳秒
+     */
+    public static double nanosPerOperation(Operation operation) throws Exception {
+        runFor(operation, WARMUP_MILLIS);
+        long start = System.nanoTime();
+        long operations = runFor(operation, MEASURE_MILLIS);
+        return (double) (System.nanoTime() - start) / operations;
+    }
+
+    private static long runFor(Operation operation, long millis) throws Exception {
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        long operations = 0;
+        // 每批 64 次再看时间 减少 nanoTime 本身的开销
+        do {
+            for (int i = 0; i < 64; i++) {
+                operation.run();
+            }
+            operations += 64;
+        } while (System.nanoTime() < deadline);
+        return operations;
+    }
+}
@@ -0,0 +1,102 @@
+package cn.client;
+
+import cn.config.Config;
+import cn.server.RpcServer;
+import cn.server.service.HelloService;
+import cn.server.service.ServiceInvoker;
+
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 连接池吞吐量随连接数的变化 在同一个进程里启动 RpcServer 再用不同大小的连接池压测 sayHello
+ * 客户端同时保持固定数量的未完成调用 单核机器上服务端和客户端抢同一个 CPU 看不出扩展性
+ */
+public class RpcPoolBenchmark {
+
+    private static final String POOL_SIZES = System.getProperty("benchmark.poolSizes", "1,2,4,8");
+    private static final int CALLS = Integer.getInteger("benchmark.calls", 100000);
+    private static final int IN_FLIGHT = Integer.getInteger("benchmark.inFlight", 1000);
+
+    public static void main(String[] args) throws Exception {
+        String host = Config.getRpcClientHost();
+        int port = Config.getRpcClientPort();
+        Thread server = new Thread(() -> RpcServer.main(new String[0]), "rpc-server");
+        server.setDaemon(true);
+        server.start();
+        awaitListening(host, port);
+
+        Method method = HelloService.class.getMethod("sayHello", String.class);
+        String signature = ServiceInvoker.signature(HelloService.class.getName(), method);
+        System.out.printf("cpus %d, calls %d, in flight %d%n", Runtime.getRuntime().availableProcessors(), CALLS, IN_FLIGHT);
+        for (String size : POOL_SIZES.split(",")) {
+            RpcConnectionPool pool = new RpcConnectionPool(host, port, Integer.parseInt(size.trim()));
+            try {
+                awaitHandshake(pool, signature);
+                // 预热 让两端的 JIT 和内存池稳定下来
+                run(pool, method, signature, CALLS / 5);
+                long start = System.nanoTime();
+                int failures = run(pool, method, signature, CALLS);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("pool %2s  %9.0f calls/s  failures %d%n", size.trim(), CALLS / seconds, failures);
+            } finally {
+                pool.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @return 失败的调用数
+     */
+    private static int run(RpcConnectionPool pool, Method method, String signature, int calls) throws InterruptedException {
+        Semaphore permits = new Semaphore(IN_FLIGHT);
+        CountDownLatch done = new CountDownLatch(calls);
+        AtomicInteger failures = new AtomicInteger();
+        Object[] args = {"world"};
+        for (int i = 0; i < calls; i++) {
+            permits.acquire();
+            RpcClientManager.call(pool, HelloService.class.getName(), method, signature, args).addListener(f -> {
+                if (!f.isSuccess()) {
+                    failures.incrementAndGet();
+                }
+                permits.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        return failures.get();
+    }
+
+    private static void awaitListening(String host, int port) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try (Socket ignored = new Socket(host, port)) {
+                return;
+            } catch (Exception e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("RpcServer 没有在 " + host + ":" + port + " 上启动", e);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    // 握手完成后调用只携带方法编号 测的是稳定状态下的路径
+    private static void awaitHandshake(RpcConnectionPool pool, String signature) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        RpcConnection connection;
+        while ((connection = pool.select()) == null || connection.methodId(signature) == null) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("连接池握手超时");
+            }
+            Thread.sleep(10);
+        }
+        // 同步连接时各连接几乎同时握手 再等一会让其余连接也完成
+        Thread.sleep(200);
+    }
+}
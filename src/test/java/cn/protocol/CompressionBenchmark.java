@@ -0,0 +1,126 @@
+package cn.protocol;
+
+import cn.benchmark.Benchmarks;
+import cn.message.ChatResponseMessage;
+import cn.message.GroupMembersResponseMessage;
+import cn.message.HistoryRecord;
+import cn.message.HistoryResponseMessage;
+import cn.message.Message;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩基准测试 对每种序列化算法的典型大消息 比较不同压缩级别、是否使用字典时的压缩率和压缩、解压耗时
+ * 线上配置是 BEST_SPEED 加字典 其余组合用来说明为什么这样选
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Message> payloads = new LinkedHashMap<>();
+        payloads.put("groupMembers", groupMembers());
+        payloads.put("history", history());
+        payloads.put("chat", chat());
+
+        System.out.printf("%-13s %-10s %7s  %-12s %7s %11s %11s%n",
+                "payload", "serializer", "bytes", "codec", "ratio", "deflate us", "inflate us");
+        for (Map.Entry<String, Message> payload : payloads.entrySet()) {
+            Message message = payload.getValue();
+            byte[] dictionary = Compression.dictionary(message.getMessageType());
+            for (Serializer.Algorithm algorithm : Serializer.Algorithm.values()) {
+                byte[] body = algorithm.serialize(message);
+                run(payload.getKey(), algorithm, body, "speed", Deflater.BEST_SPEED, null);
+                run(payload.getKey(), algorithm, body, "speed+dict", Deflater.BEST_SPEED, dictionary);
+                run(payload.getKey(), algorithm, body, "default", Deflater.DEFAULT_COMPRESSION, null);
+                run(payload.getKey(), algorithm, body, "default+dict", Deflater.DEFAULT_COMPRESSION, dictionary);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(String payload, Serializer.Algorithm algorithm, byte[] body,
+                            String codec, int level, byte[] dictionary) throws Exception {
+        Deflater deflater = new Deflater(level, true);
+        Inflater inflater = new Inflater(true);
+        byte[] compressed = new byte[body.length + 64];
+        byte[] restored = new byte[body.length];
+        int compressedLength = deflate(deflater, dictionary, body, compressed);
+        if (inflate(inflater, dictionary, compressed, compressedLength, restored) != body.length) {
+            throw new IllegalStateException(payload + " " + algorithm + " " + codec + " 解压结果长度不一致");
+        }
+
+        double deflateNanos = Benchmarks.nanosPerOperation(() -> deflate(deflater, dictionary, body, compressed));
+        double inflateNanos = Benchmarks.nanosPerOperation(
+                () -> inflate(inflater, dictionary, compressed, compressedLength, restored));
+        // 线上的压缩正文前面还有 4 字节原始长度
+        System.out.printf("%-13s %-10s %7d  %-12s %7.3f %11.1f %11.1f%n",
+                payload, algorithm, body.length, codec, (compressedLength + 4) / (double) body.length,
+                deflateNanos / 1000, inflateNanos / 1000);
+        deflater.end();
+        inflater.end();
+    }
+
+    private static int deflate(Deflater deflater, byte[] dictionary, byte[] input, byte[] output) {
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(input);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        return length;
+    }
+
+    private static int inflate(Inflater inflater, byte[] dictionary, byte[] input, int length, byte[] output)
+            throws Exception {
+        inflater.reset();
+        if (dictionary != null) {
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(input, 0, length);
+        int inflated = 0;
+        while (inflated < output.length && !inflater.finished()) {
+            inflated += inflater.inflate(output, inflated, output.length - inflated);
+        }
+        return inflated;
+    }
+
+    private static Message groupMembers() {
+        Set<String> members = new LinkedHashSet<>();
+        for (int i = 0; i < 500; i++) {
+            members.add("user" + i);
+        }
+        return new GroupMembersResponseMessage(members, 42);
+    }
+
+    private static Message history() {
+        String[] contents = {
+                "今天晚上一起吃饭吗", "好的 几点在哪里见", "七点 老地方", "收到 我可能会晚十分钟",
+                "没问题 先帮你点菜", "see you there", "记得带上周借的书"
+        };
+        List<HistoryRecord> records = new ArrayList<>();
+        long timestamp = 1_700_000_000_000L;
+        for (int i = 0; i < 100; i++) {
+            timestamp += 1000 + i * 37;
+            records.add(new HistoryRecord(i, timestamp, i % 2 == 0 ? "alice" : "bob", contents[i % contents.length]));
+        }
+        return new HistoryResponseMessage(records, 0);
+    }
+
+    private static Message chat() {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 2048) {
+            content.append("这是一条比较长的聊天消息 用来测试超过压缩阈值的单条消息 ");
+        }
+        return new ChatResponseMessage("alice", content.toString());
+    }
+}
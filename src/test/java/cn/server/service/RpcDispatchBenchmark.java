@@ -0,0 +1,47 @@
+package cn.server.service;
+
+import cn.benchmark.Benchmarks;
+
+import java.lang.reflect.Method;
+
+/**
+ * 服务端分发一次 RPC 调用的开销 不含网络和序列化
+ * 旧的做法是每次 Class.forName、getMethod 再反射调用 新的做法是按名字或者握手分配的编号查调用句柄表
+ */
+public class RpcDispatchBenchmark {
+
+    private static final String INTERFACE_NAME = HelloService.class.getName();
+    private static final String METHOD_NAME = "sayHello";
+    private static final Class<?>[] PARAMETER_TYPES = {String.class};
+    private static final Object[] ARGS = {"world"};
+
+    public static void main(String[] args) throws Exception {
+        int methodId = ServicesFactory.getMethodSignatures()
+                .indexOf(ServiceInvoker.signature(INTERFACE_NAME, HelloService.class.getMethod(METHOD_NAME, PARAMETER_TYPES)));
+
+        print("reflection", Benchmarks.nanosPerOperation(() -> {
+            Object service = ServicesFactory.getService(Class.forName(INTERFACE_NAME));
+            Method method = service.getClass().getMethod(METHOD_NAME, PARAMETER_TYPES);
+            Benchmarks.consume(method.invoke(service, ARGS));
+        }));
+        print("invoker by name", Benchmarks.nanosPerOperation(() -> {
+            try {
+                Benchmarks.consume(ServicesFactory.getInvoker(INTERFACE_NAME, METHOD_NAME, PARAMETER_TYPES).invoke(ARGS));
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        print("invoker by id", Benchmarks.nanosPerOperation(() -> {
+            try {
+                Benchmarks.consume(ServicesFactory.getInvoker(methodId).invoke(ARGS));
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        System.exit(0);
+    }
+
+    private static void print(String path, double nanos) {
+        System.out.printf("%-16s %8.1f ns/call%n", path, nanos);
+    }
+}
@@ -0,0 +1,195 @@
+package cn.server.session;
+
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 并发加入、退出和群发 检查成员快照、在线 channel 和反向索引最终保持一致
+ * 每个修改线程只操作自己的一组用户 最终的成员关系由各线程最后一次操作决定
+ */
+public class GroupSessionConcurrencyTest {
+
+    private static final int GROUPS = 8;
+    private static final int WRITERS = 4;
+    private static final int USERS_PER_WRITER = 8;
+    private static final int SENDERS = 4;
+    private static final int OPERATIONS = 20000;
+
+    private final GroupSessionMemoryImpl groupSession = new GroupSessionMemoryImpl();
+    private final Map<String, Channel> channels = new HashMap<>();
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        for (int g = 0; g < GROUPS; g++) {
+            groupSession.createGroup(group(g), Collections.emptySet());
+        }
+        // 所有用户先上线 加入群时要通过反向索引把 channel 加进在线集合
+        for (int w = 0; w < WRITERS; w++) {
+            for (int u = 0; u < USERS_PER_WRITER; u++) {
+                String username = user(w, u);
+                // 在线集合是 ChannelGroup 按 id 去重 每个 channel 需要不同的 id
+                Channel channel = new EmbeddedChannel(DefaultChannelId.newInstance());
+                channels.put(username, channel);
+                SessionFactory.getSession().bind(channel, username);
+                groupSession.online(username, channel);
+            }
+        }
+        pool = Executors.newFixedThreadPool(WRITERS + SENDERS);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        channels.values().forEach(channel -> {
+            SessionFactory.getSession().unbind(channel);
+            channel.close();
+        });
+    }
+
+    @Test
+    public void concurrentJoinQuitAndSendStayConsistent() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Future<Map<String, Set<String>>>> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers.add(pool.submit(() -> {
+                start.await();
+                return churn(writer);
+            }));
+        }
+        List<Future<Integer>> senders = new ArrayList<>();
+        for (int s = 0; s < SENDERS; s++) {
+            senders.add(pool.submit(() -> {
+                start.await();
+                return send(writing);
+            }));
+        }
+        start.countDown();
+
+        // 各线程记录的 群 -> 本线程用户 合并成期望的成员关系
+        Map<String, Set<String>> expected = new HashMap<>();
+        for (int g = 0; g < GROUPS; g++) {
+            expected.put(group(g), new HashSet<>());
+        }
+        for (Future<Map<String, Set<String>>> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS).forEach((group, members) -> expected.get(group).addAll(members));
+        }
+        writing.set(false);
+        for (Future<Integer> sender : senders) {
+            assertTrue(sender.get(60, TimeUnit.SECONDS) > 0);
+        }
+
+        for (int g = 0; g < GROUPS; g++) {
+            String name = group(g);
+            assertEquals(expected.get(name), groupSession.getMembers(name));
+            assertEquals(channelsOf(expected.get(name)), new HashSet<>(groupSession.getMembersChannel(name)));
+        }
+
+        // 下线时通过反向索引移除 所有群里都不应该再有这个 channel
+        for (Map.Entry<String, Channel> entry : channels.entrySet()) {
+            groupSession.offline(entry.getKey(), entry.getValue());
+        }
+        for (int g = 0; g < GROUPS; g++) {
+            assertTrue(groupSession.getMembersChannel(group(g)).isEmpty());
+        }
+        // 重新上线 channel 恰好出现在用户所在的群里
+        for (Map.Entry<String, Channel> entry : channels.entrySet()) {
+            groupSession.online(entry.getKey(), entry.getValue());
+        }
+        for (int g = 0; g < GROUPS; g++) {
+            String name = group(g);
+            assertEquals(channelsOf(expected.get(name)), new HashSet<>(groupSession.getMembersChannel(name)));
+        }
+    }
+
+    /**
+     * 随机加入、退出 返回本线程用户最终所在的群
+     */
+    private Map<String, Set<String>> churn(int writer) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, Set<String>> joined = new HashMap<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            String name = group(random.nextInt(GROUPS));
+            String username = user(writer, random.nextInt(USERS_PER_WRITER));
+            Set<String> members = joined.computeIfAbsent(name, key -> new HashSet<>());
+            if (random.nextBoolean()) {
+                groupSession.joinMember(name, username);
+                members.add(username);
+            } else {
+                groupSession.removeMember(name, username);
+                members.remove(username);
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * 模拟群发 遍历成员快照和在线 channel 快照的版本号只能递增
+     * @return 完成的群发次数
+     */
+    private int send(AtomicBoolean writing) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long[] versions = new long[GROUPS];
+        int sent = 0;
+        while (writing.get()) {
+            int g = random.nextInt(GROUPS);
+            Group.Members snapshot = groupSession.getMembersSnapshot(group(g));
+            assertTrue(snapshot.getVersion() >= versions[g]);
+            versions[g] = snapshot.getVersion();
+            int size = snapshot.getMembers().size();
+            int iterated = 0;
+            for (String member : snapshot.getMembers()) {
+                assertFalse(member.isEmpty());
+                iterated++;
+            }
+            // 快照创建后不会再变
+            assertEquals(size, iterated);
+            for (Channel channel : groupSession.getMembersChannel(group(g))) {
+                assertTrue(channels.containsValue(channel));
+            }
+            sent++;
+        }
+        return sent;
+    }
+
+    private Set<Channel> channelsOf(Set<String> usernames) {
+        Set<Channel> result = new HashSet<>();
+        for (String username : usernames) {
+            result.add(channels.get(username));
+        }
+        return result;
+    }
+
+    private static String group(int g) {
+        return "g" + g;
+    }
+
+    private static String user(int writer, int u) {
+        return "u" + writer + "-" + u;
+    }
+}